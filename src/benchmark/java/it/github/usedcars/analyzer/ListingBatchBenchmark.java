@@ -0,0 +1,144 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.UserProfile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtro e scoring di un {@link ListingBatch}: maschera del filtro e componenti prezzo, km e anno
+ * con i cicli scalari di {@link CarAnalyzer} e con {@link VectorScoring}, poi lo score completo e i
+ * migliori 10 a colonne contro il percorso per oggetto. Prima di misurare verifica che scalare e
+ * vettoriale diano gli stessi valori. Circa un annuncio su venti non ha prezzo, km o anno.
+ * Sta nei sorgenti del profilo benchmark insieme a {@link VectorScoring}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ListingBatchBenchmark {
+
+    private static final String[] FUELS = {"Benzina", "Diesel", "GPL", "Metano", "Ibrida", "Elettrica"};
+    private static final String[] TRANSMISSIONS = {"Manuale", "Automatico"};
+    private static final String[] ZONES = {"Milano", "Roma", "Torino", "Napoli", "Bologna", "Firenze", "Bari", "Verona"};
+
+    @Param({"10000", "100000"})
+    public int listings;
+
+    private final CarAnalyzer analyzer = new CarAnalyzer();
+    private UserProfile profile;
+    private ScoringPlan plan;
+    private List<CarListing> data;
+    private ListingBatch batch;
+    private double[] scores;
+    private boolean[] matches;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        data = new ArrayList<>(listings);
+        for (int i = 0; i < listings; i++) {
+            data.add(randomListing(random));
+        }
+        batch = ListingBatch.of(data);
+        profile = new UserProfile();
+        profile.setMaxBudget(15000);
+        profile.setMaxKilometers(150000);
+        profile.setMinYear(2012);
+        plan = analyzer.planFor(profile);
+        scores = new double[listings];
+        matches = new boolean[listings];
+
+        double[] vector = new double[listings];
+        CarAnalyzer.numericScores(batch, plan, scores);
+        VectorScoring.numericScores(batch, plan, vector);
+        if (!Arrays.equals(scores, vector)) {
+            throw new IllegalStateException("Score vettoriali diversi da quelli scalari");
+        }
+        boolean[] vectorMatches = new boolean[listings];
+        CarAnalyzer.criteriaMask(batch, plan, matches);
+        VectorScoring.criteriaMask(batch, plan, vectorMatches);
+        if (!Arrays.equals(matches, vectorMatches)) {
+            throw new IllegalStateException("Filtro vettoriale diverso da quello scalare");
+        }
+    }
+
+    @Benchmark
+    public boolean[] filterScalar() {
+        CarAnalyzer.criteriaMask(batch, plan, matches);
+        return matches;
+    }
+
+    @Benchmark
+    public boolean[] filterVector() {
+        VectorScoring.criteriaMask(batch, plan, matches);
+        return matches;
+    }
+
+    @Benchmark
+    public double[] numericScalar() {
+        CarAnalyzer.numericScores(batch, plan, scores);
+        return scores;
+    }
+
+    @Benchmark
+    public double[] numericVector() {
+        VectorScoring.numericScores(batch, plan, scores);
+        return scores;
+    }
+
+    @Benchmark
+    public double[] batchScores() {
+        return analyzer.scoreBatch(batch, profile);
+    }
+
+    @Benchmark
+    public double[] objectScores() {
+        for (int i = 0; i < listings; i++) {
+            scores[i] = plan.score(data.get(i));
+        }
+        return scores;
+    }
+
+    @Benchmark
+    public List<CarListing> batchRankTop() {
+        return analyzer.rankTop(batch, profile, 10);
+    }
+
+    @Benchmark
+    public List<CarListing> sessionRankTop() {
+        return new RankingSession(analyzer, data, profile, 10).getTopResults();
+    }
+
+    // ---- Dati sintetici ----
+
+    private static CarListing randomListing(Random random) {
+        CarListing listing = new CarListing();
+        listing.setTitle("Auto " + random.nextInt(1000));
+        listing.setPrice(random.nextInt(20) == 0 ? 0 : 1500 + random.nextInt(25000));
+        listing.setKilometers(random.nextInt(20) == 0 ? 0 : 1000 + random.nextInt(250000));
+        listing.setYear(random.nextInt(20) == 0 ? 0 : 2005 + random.nextInt(21));
+        listing.setFuelType(FUELS[random.nextInt(FUELS.length)]);
+        listing.setTransmission(TRANSMISSIONS[random.nextInt(TRANSMISSIONS.length)]);
+        listing.setPower((60 + random.nextInt(140)) + " CV");
+        listing.setLocation(ZONES[random.nextInt(ZONES.length)]);
+        return listing;
+    }
+}
@@ -0,0 +1,132 @@
+package it.github.usedcars.analyzer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Filtro e componenti numeriche dello score (prezzo, km, anno) su {@link ListingBatch} con la
+ * Vector API: piu' annunci per istruzione, con le soglie di {@link ScoringPlan} tradotte in maschere
+ * al posto dei rami. Le operazioni sono le stesse e nello stesso ordine della versione scalare di
+ * {@link CarAnalyzer}, quindi il risultato coincide bit per bit; la coda che non riempie un vettore
+ * usa i metodi scalari.
+ * Il modulo jdk.incubator.vector e' ancora in incubazione: questa classe sta nei sorgenti del
+ * profilo benchmark, cosi' build e applicazione normali restano senza il modulo e i suoi avvisi.
+ */
+final class VectorScoring {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // Stesso numero di lane dei double: gli int occupano meta' dei bit
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    // Il filtro confronta solo int: vettore pieno
+    private static final VectorSpecies<Integer> FILTER_INTS = IntVector.SPECIES_PREFERRED;
+
+    private VectorScoring() {}
+
+    /**
+     * Scrive in {@code match} l'esito del filtro di {@link ScoringPlan#matches} per ogni annuncio,
+     * come {@link CarAnalyzer#criteriaMask}.
+     */
+    static void criteriaMask(ListingBatch batch, ScoringPlan plan, boolean[] match) {
+        int size = batch.size();
+        int[] prices = batch.prices;
+        int[] kilometers = batch.kilometers;
+        int[] years = batch.years;
+        int budgetLimit = plan.budgetLimit;
+        int maxKm = plan.maxKilometers;
+        int minYear = plan.minYear;
+
+        int i = 0;
+        int bound = FILTER_INTS.loopBound(size);
+        for (; i < bound; i += FILTER_INTS.length()) {
+            IntVector price = IntVector.fromArray(FILTER_INTS, prices, i);
+            VectorMask<Integer> ok = price.compare(VectorOperators.GT, 0)
+                    .and(price.compare(VectorOperators.LE, budgetLimit));
+            if (maxKm > 0) {
+                IntVector km = IntVector.fromArray(FILTER_INTS, kilometers, i);
+                ok = ok.and(km.compare(VectorOperators.LE, 0).or(km.compare(VectorOperators.LE, maxKm)));
+            }
+            if (minYear > 0) {
+                IntVector year = IntVector.fromArray(FILTER_INTS, years, i);
+                ok = ok.and(year.compare(VectorOperators.LE, 0).or(year.compare(VectorOperators.GE, minYear)));
+            }
+            ok.intoArray(match, i);
+        }
+
+        for (; i < size; i++) {
+            match[i] = plan.matches(prices[i], kilometers[i], years[i]);
+        }
+    }
+
+    /**
+     * Scrive in {@code scores} la somma delle componenti prezzo, km e anno di ogni annuncio.
+     */
+    static void numericScores(ListingBatch batch, ScoringPlan plan, double[] scores) {
+        int size = batch.size();
+        int[] prices = batch.prices;
+        int[] kilometers = batch.kilometers;
+        int[] years = batch.years;
+        ScoringWeights weights = plan.getWeights();
+
+        double budget = plan.budget;
+        double currentYear = plan.currentYear;
+        DoubleVector priceMax = DoubleVector.broadcast(DOUBLES, weights.getPrice());
+        DoubleVector priceHalf = DoubleVector.broadcast(DOUBLES, weights.getPrice() * 0.5);
+        DoubleVector kmMax = DoubleVector.broadcast(DOUBLES, weights.getKilometers());
+        DoubleVector kmHalf = DoubleVector.broadcast(DOUBLES, weights.getKilometers() * 0.5);
+        DoubleVector yearMax = DoubleVector.broadcast(DOUBLES, weights.getYear());
+        DoubleVector yearHalf = DoubleVector.broadcast(DOUBLES, weights.getYear() * 0.5);
+        DoubleVector zero = DoubleVector.zero(DOUBLES);
+
+        int i = 0;
+        int bound = DOUBLES.loopBound(size);
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector price = toDoubles(prices, i);
+            DoubleVector km = toDoubles(kilometers, i);
+            DoubleVector year = toDoubles(years, i);
+
+            // Prezzo: w * (1.1 - ratio) / 0.6, w sotto 0.5, 0 da 1.1, w/2 senza prezzo o budget
+            DoubleVector priceScore;
+            if (budget <= 0) {
+                priceScore = priceHalf;
+            } else {
+                DoubleVector ratio = price.div(budget);
+                priceScore = priceMax.mul(DoubleVector.broadcast(DOUBLES, 1.1).sub(ratio)).div(0.6)
+                        .blend(priceMax, ratio.compare(VectorOperators.LE, 0.5))
+                        .blend(zero, ratio.compare(VectorOperators.GE, 1.1))
+                        .blend(priceHalf, price.compare(VectorOperators.LE, 0));
+            }
+
+            // Km rispetto all'eta' (almeno 1 anno): w * (2.0 - ratio) / 1.5, w sotto 0.5, 0 da 2.0
+            DoubleVector age = DoubleVector.broadcast(DOUBLES, currentYear).sub(year).max(1.0);
+            DoubleVector kmRatio = km.div(age.mul(15000.0));
+            DoubleVector kmScore = kmMax.mul(DoubleVector.broadcast(DOUBLES, 2.0).sub(kmRatio)).div(1.5)
+                    .blend(kmMax, kmRatio.compare(VectorOperators.LE, 0.5))
+                    .blend(zero, kmRatio.compare(VectorOperators.GE, 2.0))
+                    .blend(kmHalf, km.compare(VectorOperators.LE, 0));
+
+            // Anno: w * (15 - eta') / 14, w fino a 1 anno, 0 da 15, w/2 senza anno
+            DoubleVector yearAge = DoubleVector.broadcast(DOUBLES, currentYear).sub(year);
+            VectorMask<Double> noYear = year.compare(VectorOperators.LE, 0);
+            DoubleVector yearScore = yearMax.mul(DoubleVector.broadcast(DOUBLES, 15).sub(yearAge)).div(14.0)
+                    .blend(yearMax, yearAge.compare(VectorOperators.LE, 1))
+                    .blend(zero, yearAge.compare(VectorOperators.GE, 15))
+                    .blend(yearHalf, noYear);
+
+            priceScore.add(kmScore).add(yearScore).intoArray(scores, i);
+        }
+
+        for (; i < size; i++) {
+            scores[i] = plan.priceScore(prices[i]) + plan.kmScore(kilometers[i], years[i]) + plan.yearScore(years[i]);
+        }
+    }
+
+    private static DoubleVector toDoubles(int[] values, int offset) {
+        return (DoubleVector) IntVector.fromArray(INTS, values, offset)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+}
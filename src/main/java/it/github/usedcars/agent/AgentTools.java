@@ -4,45 +4,64 @@ import dev.langchain4j.agent.tool.P;
 import dev.langchain4j.agent.tool.Tool;
 import it.github.usedcars.analyzer.CarAnalyzer;
 import it.github.usedcars.analyzer.ClaudeAnalyzer;
+import it.github.usedcars.analyzer.IncrementalRanker;
+import it.github.usedcars.analyzer.ListingIndex;
+import it.github.usedcars.analyzer.ProfileDiff;
+import it.github.usedcars.analyzer.RankingSession;
+import it.github.usedcars.analyzer.ScoringPlan;
 import it.github.usedcars.model.*;
 import it.github.usedcars.scraper.CarScraper;
-import it.github.usedcars.scraper.ScraperUtils;
 import it.github.usedcars.ui.ConsoleUI;
 import it.github.usedcars.ui.ResultsPresenter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class AgentTools {
 
     private static final Logger log = LoggerFactory.getLogger(AgentTools.class);
 
+    private static final int TOP_RESULTS = 10;
+
     private final List<CarScraper> scrapers;
     private final CarAnalyzer carAnalyzer;
     private final ClaudeAnalyzer claudeAnalyzer;
     private final ResultsPresenter resultsPresenter;
     private final ConsoleUI ui;
-    private final int scraperDelayMs;
+    private final long sourceTimeoutMs;
+    private final long searchTimeoutMs;
 
     // Stato della sessione
     private UserProfile userProfile;
     private List<CarListing> searchResults;
     private List<CarListing> rankedResults;
+    private IncrementalRanker incrementalRanker;
+    private RankingSession rankingSession;
+    private ListingIndex listingIndex;
+    private UserProfile listingIndexProfile;
     private AnalysisResult analysisResult;
 
     public AgentTools(List<CarScraper> scrapers, CarAnalyzer carAnalyzer,
                       ClaudeAnalyzer claudeAnalyzer, ResultsPresenter resultsPresenter,
-                      ConsoleUI ui, int scraperDelayMs) {
+                      ConsoleUI ui, long sourceTimeoutMs, long searchTimeoutMs) {
         this.scrapers = scrapers;
         this.carAnalyzer = carAnalyzer;
         this.claudeAnalyzer = claudeAnalyzer;
         this.resultsPresenter = resultsPresenter;
         this.ui = ui;
-        this.scraperDelayMs = scraperDelayMs;
+        this.sourceTimeoutMs = sourceTimeoutMs;
+        this.searchTimeoutMs = searchTimeoutMs;
     }
 
     @Tool("Salva il profilo utente con le preferenze raccolte. Chiama questo tool quando hai raccolto tutte le preferenze dell'utente.")
@@ -80,38 +99,224 @@ public class AgentTools {
         }
 
         SearchCriteria criteria = SearchCriteria.fromProfile(userProfile);
-        searchResults = new ArrayList<>();
+        SearchCollector collector = new SearchCollector(new IncrementalRanker(carAnalyzer, userProfile, TOP_RESULTS));
 
-        for (CarScraper scraper : scrapers) {
-            try {
-                ui.printProgress("Cerco su " + scraper.getSourceName() + "...");
-                List<CarListing> results = scraper.search(criteria);
-                searchResults.addAll(results);
-                ui.printProgress(scraper.getSourceName() + ": trovati " + results.size() + " annunci");
-            } catch (Exception e) {
-                log.warn("Errore scraping {}: {}", scraper.getSourceName(), e.getMessage());
-                ui.printWarning("Impossibile cercare su " + scraper.getSourceName() + ": " + e.getMessage());
-            }
+        List<SourceOutcome> outcomes = searchAllSources(criteria, collector, false);
+        searchResults = collector.close();
+        incrementalRanker = collector.ranker;
+        rankingSession = null;
+        listingIndex = null;
+        carAnalyzer.getMarketPrices().save();
 
-            ScraperUtils.delay(scraperDelayMs);
-        }
+        StringBuilder report = new StringBuilder("Dettaglio fonti:\n");
+        outcomes.forEach(outcome -> report.append(outcome.describe()).append("\n"));
+        boolean partial = outcomes.stream().anyMatch(outcome -> outcome.error != null);
 
         if (searchResults.isEmpty()) {
-            return "Nessun annuncio trovato con i criteri specificati. Suggerisci all'utente di allargare i criteri di ricerca.";
+            return "Nessun annuncio trovato con i criteri specificati. Suggerisci all'utente di allargare i criteri di ricerca.\n"
+                    + report;
         }
 
-        Map<String, Long> bySource = searchResults.stream()
-                .collect(Collectors.groupingBy(CarListing::getSource, Collectors.counting()));
-
         StringBuilder sb = new StringBuilder();
-        sb.append("Ricerca completata! Trovati ").append(searchResults.size()).append(" annunci totali:\n");
-        bySource.forEach((source, count) ->
-                sb.append("- ").append(source).append(": ").append(count).append("\n"));
+        sb.append("Ricerca completata").append(partial ? " con risultati parziali" : "")
+                .append("! Trovati ").append(searchResults.size()).append(" annunci totali.\n");
+        sb.append(report);
         sb.append("\nOra puoi procedere con analyzeAndRankResults per analizzare i risultati.");
 
         return sb.toString();
     }
 
+    @Tool("Controlla se sono usciti nuovi annunci per la ricerca gia' fatta, scaricando solo le pagine con annunci non ancora visti. Usalo quando l'utente chiede novita' o aggiornamenti.")
+    public String checkNewListings() {
+        if (userProfile == null) {
+            return "Errore: devi prima salvare il profilo con saveUserProfile.";
+        }
+
+        SearchCriteria criteria = SearchCriteria.fromProfile(userProfile);
+        // Con lo stesso profilo i nuovi annunci entrano nella classifica della ricerca, deduplicati
+        // anche rispetto a quelli gia' trovati; altrimenti servira' una deduplicazione completa
+        boolean extendRanking = incrementalRanker != null && incrementalRanker.getProfile() == userProfile;
+        SearchCollector collector = new SearchCollector(extendRanking
+                ? incrementalRanker : new IncrementalRanker(carAnalyzer, userProfile, TOP_RESULTS));
+
+        List<SourceOutcome> outcomes = searchAllSources(criteria, collector, true);
+        List<CarListing> newListings = collector.close();
+        carAnalyzer.getMarketPrices().save();
+
+        StringBuilder report = new StringBuilder("Dettaglio fonti:\n");
+        outcomes.forEach(outcome -> report.append(outcome.describe()).append("\n"));
+
+        if (newListings.isEmpty()) {
+            return "Nessun nuovo annuncio dall'ultima ricerca.\n" + report;
+        }
+
+        // I nuovi annunci si aggiungono alla sessione: la prossima analisi li includera'
+        if (searchResults == null) {
+            searchResults = new ArrayList<>();
+        }
+        searchResults.addAll(newListings);
+        if (!extendRanking) {
+            incrementalRanker = null;
+        }
+        rankingSession = null;
+        listingIndex = null;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Trovati ").append(newListings.size()).append(" nuovi annunci:\n");
+        newListings.stream().limit(10)
+                .forEach(listing -> sb.append("- ").append(listing.toShortDescription()).append("\n"));
+        sb.append(report);
+        sb.append("\nPuoi usare analyzeAndRankResults per aggiornare la classifica con i nuovi annunci.");
+        return sb.toString();
+    }
+
+    /**
+     * Interroga tutte le fonti in parallelo, ognuna su un virtual thread.
+     * Ogni fonte ha una propria scadenza, limitata dalla scadenza globale della ricerca:
+     * le fonti lente o in errore vengono riportate come parziali senza bloccare le altre.
+     */
+    private List<SourceOutcome> searchAllSources(SearchCriteria criteria, SearchCollector collector,
+                                                 boolean onlyNew) {
+        long start = System.nanoTime();
+        long globalDeadline = start + TimeUnit.MILLISECONDS.toNanos(searchTimeoutMs);
+        long sourceDeadline = Math.min(globalDeadline, start + TimeUnit.MILLISECONDS.toNanos(sourceTimeoutMs));
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        Map<CarScraper, Future<SourceOutcome>> pending = new LinkedHashMap<>();
+        for (CarScraper scraper : scrapers) {
+            ui.printProgress("Cerco su " + scraper.getSourceName() + "...");
+            pending.put(scraper, executor.submit(() -> {
+                long sourceStart = System.nanoTime();
+                if (onlyNew) {
+                    scraper.searchNew(criteria, batch -> collector.accept(scraper.getSourceName(), batch));
+                } else {
+                    scraper.search(criteria, batch -> collector.accept(scraper.getSourceName(), batch),
+                            collector::canStopFrom);
+                }
+                return SourceOutcome.completed(scraper.getSourceName(),
+                        collector.countFor(scraper.getSourceName()), elapsedMs(sourceStart));
+            }));
+        }
+
+        List<SourceOutcome> outcomes = new ArrayList<>();
+        try {
+            for (Map.Entry<CarScraper, Future<SourceOutcome>> entry : pending.entrySet()) {
+                String sourceName = entry.getKey().getSourceName();
+                SourceOutcome outcome = awaitSource(sourceName, entry.getValue(), collector, start, sourceDeadline);
+                outcomes.add(outcome);
+
+                if (outcome.error == null) {
+                    ui.printProgress(sourceName + ": trovati " + outcome.listingCount + " annunci");
+                } else {
+                    log.warn("Errore scraping {}: {}", sourceName, outcome.error);
+                    ui.printWarning("Impossibile cercare su " + sourceName + ": " + outcome.error);
+                }
+            }
+        } finally {
+            // Le fonti ancora in corso oltre la scadenza vengono abbandonate, senza attenderne la chiusura
+            executor.shutdownNow();
+        }
+
+        return outcomes;
+    }
+
+    private SourceOutcome awaitSource(String sourceName, Future<SourceOutcome> future, SearchCollector collector,
+                                      long start, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return SourceOutcome.failed(sourceName, collector.countFor(sourceName), elapsedMs(start),
+                    "nessuna risposta completa entro " + TimeUnit.NANOSECONDS.toMillis(deadline - start) + " ms");
+        } catch (ExecutionException e) {
+            return SourceOutcome.failed(sourceName, collector.countFor(sourceName), elapsedMs(start),
+                    e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return SourceOutcome.failed(sourceName, collector.countFor(sourceName), elapsedMs(start),
+                    "ricerca interrotta");
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Raccoglie i blocchi di annunci in arrivo dalle fonti e li passa subito al ranking incrementale.
+     * Dopo close() i blocchi ritardatari delle fonti scadute vengono ignorati.
+     */
+    private final class SearchCollector {
+        private final IncrementalRanker ranker;
+        private final List<CarListing> received = new ArrayList<>();
+        private final Map<String, Integer> countsBySource = new HashMap<>();
+        private boolean closed;
+        private boolean firstResultShown;
+
+        SearchCollector(IncrementalRanker ranker) {
+            this.ranker = ranker;
+        }
+
+        synchronized void accept(String sourceName, List<CarListing> batch) {
+            if (closed) return;
+            received.addAll(batch);
+            countsBySource.merge(sourceName, batch.size(), Integer::sum);
+            ranker.accept(batch);
+
+            if (!firstResultShown && ranker.getRankedCount() > 0) {
+                firstResultShown = true;
+                CarListing best = ranker.getTopResults(1).get(0);
+                ui.printProgress(String.format("Primo risultato in classifica: %s (score %.1f)",
+                        best.toShortDescription(), best.getScore()));
+            }
+        }
+
+        /** Arresto anticipato delle fonti ordinate per prezzo, deciso dalla classifica comune. */
+        synchronized boolean canStopFrom(int minPrice) {
+            return !closed && ranker.canStopFrom(minPrice);
+        }
+
+        synchronized int countFor(String sourceName) {
+            return countsBySource.getOrDefault(sourceName, 0);
+        }
+
+        synchronized List<CarListing> close() {
+            closed = true;
+            return new ArrayList<>(received);
+        }
+    }
+
+    private static final class SourceOutcome {
+        private final String sourceName;
+        private final int listingCount;
+        private final long elapsedMs;
+        private final String error;
+
+        private SourceOutcome(String sourceName, int listingCount, long elapsedMs, String error) {
+            this.sourceName = sourceName;
+            this.listingCount = listingCount;
+            this.elapsedMs = elapsedMs;
+            this.error = error;
+        }
+
+        static SourceOutcome completed(String sourceName, int listingCount, long elapsedMs) {
+            return new SourceOutcome(sourceName, listingCount, elapsedMs, null);
+        }
+
+        static SourceOutcome failed(String sourceName, int listingCount, long elapsedMs, String error) {
+            return new SourceOutcome(sourceName, listingCount, elapsedMs, error);
+        }
+
+        String describe() {
+            String timing = String.format("%.1fs", elapsedMs / 1000.0);
+            if (error != null) {
+                return "- " + sourceName + ": " + listingCount + " annunci (parziali) in " + timing + " (" + error + ")";
+            }
+            return "- " + sourceName + ": " + listingCount + " annunci in " + timing;
+        }
+    }
+
     @Tool("Analizza e classifica i risultati della ricerca. Rimuove duplicati, calcola score e chiede a Claude una analisi qualitativa dei top 10.")
     public String analyzeAndRankResults() {
         if (searchResults == null || searchResults.isEmpty()) {
@@ -120,11 +325,27 @@ public class AgentTools {
 
         ui.printProgress("Rimuovo duplicati e calcolo score...");
 
-        // Analisi deterministica
-        List<CarListing> deduplicated = carAnalyzer.deduplicate(searchResults);
-        List<CarListing> filtered = carAnalyzer.filterByCriteria(deduplicated, userProfile);
-        List<CarListing> scored = carAnalyzer.scoreAndRank(filtered, userProfile);
-        rankedResults = carAnalyzer.getTopResults(scored, 10);
+        // Analisi deterministica: se il profilo non e' cambiato la classifica e' gia' pronta dalla ricerca
+        if (incrementalRanker != null && incrementalRanker.getProfile() == userProfile) {
+            log.info("Uso la classifica incrementale: {} ricevuti, {} duplicati, {} scartati dal filtro",
+                    incrementalRanker.getReceived(), incrementalRanker.getDuplicates(),
+                    incrementalRanker.getFilteredOut());
+            incrementalRanker.logDiscarded();
+            rankedResults = incrementalRanker.getTopResults(TOP_RESULTS);
+            // Base per i ritocchi del profilo: gli annunci sono gia' deduplicati dalla ricerca
+            if (rankingSession == null) {
+                rankingSession = new RankingSession(carAnalyzer, incrementalRanker.getUniqueListings(),
+                        userProfile, TOP_RESULTS);
+            }
+        } else if (rankingSession != null) {
+            // Profilo ritoccato: si ricalcolano solo le componenti che dipendono dai campi cambiati
+            ProfileDiff diff = rankingSession.refine(userProfile);
+            log.info("Profilo modificato ({}), classifica aggiornata senza rifare la pipeline", diff);
+            rankedResults = rankingSession.getTopResults();
+        } else {
+            rankingSession = new RankingSession(carAnalyzer, uniqueResults(), userProfile, TOP_RESULTS);
+            rankedResults = rankingSession.getTopResults();
+        }
 
         ui.printProgress("Trovati " + rankedResults.size() + " risultati dopo deduplicazione e ranking.");
 
@@ -135,19 +356,76 @@ public class AgentTools {
         // Analisi qualitativa con Claude
         ui.printProgress("Chiedo a Claude un'analisi dettagliata dei migliori " + rankedResults.size() + " annunci...");
         try {
-            analysisResult = claudeAnalyzer.analyzeListings(rankedResults, userProfile);
+            // Ogni scheda viene mostrata appena la sua analisi e' pronta, senza attendere le altre
+            List<CarListing> analyzed = rankedResults;
+            analysisResult = claudeAnalyzer.analyzeListings(analyzed, userProfile, analysis ->
+                    ui.printBlock(resultsPresenter.formatListing(analyzed.indexOf(analysis.getListing()) + 1,
+                            analysis.getListing(), analysis)));
         } catch (Exception e) {
             log.error("Errore analisi Claude: {}", e.getMessage());
             return "Analisi deterministica completata con " + rankedResults.size() + " risultati, "
                     + "ma l'analisi AI non e' riuscita: " + e.getMessage()
                     + "\nPuoi comunque mostrare i risultati con presentResults.";
+        } finally {
+            // Anche dopo un errore restano utili le analisi dei blocchi riusciti
+            claudeAnalyzer.getCache().save();
         }
 
         return "Analisi completata! " + rankedResults.size() + " annunci analizzati con score e analisi qualitativa. "
                 + "Usa presentResults per mostrare i risultati all'utente.";
     }
 
-    @Tool("Mostra i risultati finali con raccomandazioni, pro/contro e top 3. Chiama dopo analyzeAndRankResults.")
+    @Tool("Filtra e ordina gli annunci gia' trovati senza rifare la ricerca. Usalo per richieste come 'solo diesel sotto 80.000 km', 'solo Golf dal 2019', 'tra 8.000 e 12.000 euro' o 'solo quelli di Subito'.")
+    public String filterResults(
+            @P("Alimentazione (es. diesel, benzina, ibrida), vuoto per qualsiasi") String fuel,
+            @P("Cambio (manuale, automatico), vuoto per qualsiasi") String transmission,
+            @P("Marca (es. volkswagen), vuoto per qualsiasi") String brand,
+            @P("Modello (es. golf), vuoto per qualsiasi") String model,
+            @P("Sito di provenienza (es. subito), vuoto per qualsiasi") String source,
+            @P("Prezzo minimo in euro, 0 per qualsiasi") int minPrice,
+            @P("Prezzo massimo in euro, 0 per qualsiasi") int maxPrice,
+            @P("Chilometri minimi, 0 per qualsiasi") int minKilometers,
+            @P("Chilometri massimi, 0 per qualsiasi") int maxKilometers,
+            @P("Anno minimo, 0 per qualsiasi") int minYear,
+            @P("Anno massimo, 0 per qualsiasi") int maxYear,
+            @P("Ordinamento: score, prezzo, km, anno") String sortBy) {
+        if (searchResults == null || searchResults.isEmpty()) {
+            return "Errore: nessun risultato di ricerca. Usa prima startCarSearch.";
+        }
+
+        ListingIndex.Query query = new ListingIndex.Query();
+        query.setFuel(fuel);
+        query.setTransmission(transmission);
+        query.setBrand(brand);
+        query.setModel(model);
+        query.setSource(source);
+        query.setMinPrice(minPrice);
+        query.setMaxPrice(maxPrice);
+        query.setMinKilometers(minKilometers);
+        query.setMaxKilometers(maxKilometers);
+        query.setMinYear(minYear);
+        query.setMaxYear(maxYear);
+        applySort(query, sortBy);
+        query.setLimit(TOP_RESULTS);
+
+        long start = System.nanoTime();
+        List<ListingIndex.Hit> matches = getListingIndex().query(query);
+        log.info("Filtro su {} annunci in {} us", listingIndex.size(), (System.nanoTime() - start) / 1000);
+
+        if (matches.isEmpty()) {
+            return "Nessun annuncio tra i " + listingIndex.size() + " trovati soddisfa questi filtri.";
+        }
+        StringBuilder sb = new StringBuilder("Annunci che soddisfano i filtri (max " + TOP_RESULTS + "):\n");
+        for (ListingIndex.Hit match : matches) {
+            CarListing listing = match.getListing();
+            sb.append("- ").append(listing.toShortDescription())
+                    .append(String.format(" | score %.1f", match.getScore()))
+                    .append(" | ").append(listing.getUrl()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    @Tool("Restituisce i risultati finali con raccomandazioni, pro/contro, link e top 3. Le schede dei singoli annunci sono gia' state mostrate all'utente durante l'analisi: non ricopiarle, riassumi top 3 e raccomandazione e usa i dettagli per le domande successive. Chiama dopo analyzeAndRankResults.")
     public String presentResults() {
         if (rankedResults == null || rankedResults.isEmpty()) {
             return "Errore: nessun risultato analizzato. Usa prima analyzeAndRankResults.";
@@ -156,6 +434,43 @@ public class AgentTools {
         return resultsPresenter.formatResults(rankedResults, analysisResult);
     }
 
+    /**
+     * Indice sugli annunci deduplicati della sessione, ricostruito solo se cambiano risultati o profilo.
+     */
+    private ListingIndex getListingIndex() {
+        if (listingIndex == null || listingIndexProfile != userProfile) {
+            ScoringPlan plan = userProfile != null ? carAnalyzer.planFor(userProfile) : null;
+            listingIndex = new ListingIndex(uniqueResults(), plan);
+            listingIndexProfile = userProfile;
+        }
+        return listingIndex;
+    }
+
+    /**
+     * Annunci della sessione senza duplicati. Se la classifica incrementale copre ancora tutti i
+     * risultati li ha gia' deduplicati durante la ricerca; la deduplicazione completa serve solo dopo
+     * nuovi annunci arrivati con un profilo diverso.
+     */
+    private List<CarListing> uniqueResults() {
+        return incrementalRanker != null ? incrementalRanker.getUniqueListings() : carAnalyzer.deduplicate(searchResults);
+    }
+
+    private static void applySort(ListingIndex.Query query, String sortBy) {
+        String field = sortBy == null ? "" : sortBy.trim().toLowerCase();
+        switch (field) {
+            case "prezzo" -> {
+                query.setSortBy(ListingIndex.SortField.PRICE);
+                query.setDescending(false);
+            }
+            case "km" -> {
+                query.setSortBy(ListingIndex.SortField.KILOMETERS);
+                query.setDescending(false);
+            }
+            case "anno" -> query.setSortBy(ListingIndex.SortField.YEAR);
+            default -> query.setSortBy(ListingIndex.SortField.SCORE);
+        }
+    }
+
     // Accessors per testing
     UserProfile getUserProfile() { return userProfile; }
     List<CarListing> getSearchResults() { return searchResults; }
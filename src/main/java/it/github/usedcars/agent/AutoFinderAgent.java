@@ -25,7 +25,13 @@ public interface AutoFinderAgent {
             3. Usa showProfileSummary per mostrare il riepilogo e chiedi conferma.
             4. Se l'utente conferma, usa startCarSearch per cercare annunci.
             5. Dopo la ricerca, usa analyzeAndRankResults per analizzare i risultati.
-            6. Infine usa presentResults per mostrare i risultati finali.
+            6. Infine usa presentResults per avere i risultati finali. Le schede dei singoli annunci
+               sono gia' comparse a schermo durante l'analisi: nella risposta non ricopiarle, riassumi
+               la top 3 e la raccomandazione. Tieni i dettagli (pro/contro, red flag, link) per
+               rispondere a domande come "dimmi di piu' sulla numero 4".
+            7. Se in seguito l'utente chiede se ci sono novita', usa checkNewListings.
+            8. Se l'utente vuole restringere o riordinare gli annunci gia' trovati
+               (es. "solo diesel sotto 80.000 km"), usa filterResults invece di una nuova ricerca.
 
             REGOLE:
             - Sii cordiale, professionale e preciso.
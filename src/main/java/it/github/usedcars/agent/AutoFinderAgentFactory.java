@@ -2,39 +2,80 @@ package it.github.usedcars.agent;
 
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.anthropic.AnthropicChatModel;
+import dev.langchain4j.model.anthropic.AnthropicStreamingChatModel;
 import dev.langchain4j.service.AiServices;
+import it.github.usedcars.analyzer.AnalysisCache;
 import it.github.usedcars.analyzer.CarAnalyzer;
+import it.github.usedcars.analyzer.MarketPriceIndex;
+import it.github.usedcars.analyzer.NearDuplicateDetector;
+import it.github.usedcars.analyzer.ScoringWeights;
 import it.github.usedcars.analyzer.ClaudeAnalyzer;
 import it.github.usedcars.config.AppConfig;
 import it.github.usedcars.scraper.CarScraper;
+import it.github.usedcars.scraper.CircuitBreaker;
+import it.github.usedcars.scraper.HostRateLimiter;
+import it.github.usedcars.scraper.HttpFetcher;
+import it.github.usedcars.scraper.LatencyHistogram;
+import it.github.usedcars.scraper.PageCache;
+import it.github.usedcars.scraper.ResilientScraper;
+import it.github.usedcars.scraper.ScraperUtils;
+import it.github.usedcars.scraper.SeenListingsStore;
 import it.github.usedcars.scraper.SubitoItScraper;
 import it.github.usedcars.ui.ConsoleUI;
 import it.github.usedcars.ui.ResultsPresenter;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 
 public class AutoFinderAgentFactory {
 
+    private static final String MODEL_NAME = "claude-sonnet-4-5-20250929";
+
     public static AutoFinderAgent create(AppConfig config) {
         AnthropicChatModel chatModel = AnthropicChatModel.builder()
                 .apiKey(config.getAnthropicApiKey())
-                .modelName("claude-sonnet-4-5-20250929")
+                .modelName(MODEL_NAME)
                 .temperature(0.7)
                 .maxTokens(4096)
                 .build();
+        // Stesso modello in streaming, usato solo per l'analisi degli annunci
+        AnthropicStreamingChatModel streamingModel = config.isAnalysisStreaming()
+                ? AnthropicStreamingChatModel.builder()
+                        .apiKey(config.getAnthropicApiKey())
+                        .modelName(MODEL_NAME)
+                        .temperature(0.7)
+                        .maxTokens(4096)
+                        .build()
+                : null;
 
         ConsoleUI ui = new ConsoleUI();
 
+        HostRateLimiter rateLimiter = new HostRateLimiter(
+                config.getScraperRequestsPerSecond(), config.getScraperBurst());
+        HttpFetcher fetcher = new HttpFetcher(rateLimiter, createPageCache(config),
+                Duration.ofMillis(config.getHttpTimeoutMs()), config.getHttpMaxRetries(), config.getHttpRetryBaseMs());
+        ScraperUtils.setHttpFetcher(fetcher);
+
         List<CarScraper> scrapers = List.of(
-                new SubitoItScraper(config.getMaxResultsPerSource())
+                resilient(new SubitoItScraper(config.getMaxResultsPerSource(), fetcher,
+                        new SeenListingsStore(Path.of(config.getSeenListingsFile())), config.isScraperPriceOrder()),
+                        config)
         );
 
-        CarAnalyzer carAnalyzer = new CarAnalyzer();
-        ClaudeAnalyzer claudeAnalyzer = new ClaudeAnalyzer(chatModel);
+        double[] weights = config.getScoreWeights();
+        CarAnalyzer carAnalyzer = new CarAnalyzer(new NearDuplicateDetector(),
+                new ScoringWeights(weights[0], weights[1], weights[2], weights[3], weights[4], weights[5]),
+                new MarketPriceIndex(Path.of(config.getMarketPricesFile())));
+        AnalysisCache analysisCache = new AnalysisCache(Path.of(config.getAnalysisCacheFile()),
+                config.getAnalysisCacheMaxEntries(), Duration.ofHours(config.getAnalysisCacheTtlHours()));
+        ClaudeAnalyzer claudeAnalyzer = new ClaudeAnalyzer(chatModel, streamingModel, analysisCache,
+                config.getAnalysisChunkSize(), config.getAnalysisMaxAttempts(), config.getAnalysisTokenBudget(),
+                config.isAnalysisJsonOutput());
         ResultsPresenter resultsPresenter = new ResultsPresenter();
 
         AgentTools tools = new AgentTools(scrapers, carAnalyzer, claudeAnalyzer,
-                resultsPresenter, ui, config.getScraperDelayMs());
+                resultsPresenter, ui, config.getSourceTimeoutMs(), config.getSearchTimeoutMs());
 
         return AiServices.builder(AutoFinderAgent.class)
                 .chatLanguageModel(chatModel)
@@ -42,4 +83,20 @@ public class AutoFinderAgentFactory {
                 .chatMemory(MessageWindowChatMemory.withMaxMessages(20))
                 .build();
     }
+
+    private static CarScraper resilient(CarScraper scraper, AppConfig config) {
+        return new ResilientScraper(scraper,
+                new CircuitBreaker(config.getCircuitFailureThreshold(), Duration.ofSeconds(config.getCircuitOpenSeconds())),
+                new LatencyHistogram(100));
+    }
+
+    private static PageCache createPageCache(AppConfig config) {
+        if (!config.isPageCacheEnabled()) {
+            return PageCache.disabled();
+        }
+        return new PageCache(Path.of(config.getPageCacheDir()),
+                Duration.ofMinutes(config.getPageCacheTtlMinutes()),
+                config.getPageCacheMaxMb() * 1024L * 1024L,
+                config.isPageCacheOffline());
+    }
 }
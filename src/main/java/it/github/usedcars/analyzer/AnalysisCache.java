@@ -0,0 +1,187 @@
+package it.github.usedcars.analyzer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.github.usedcars.model.AnalysisResult.ListingAnalysis;
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache delle analisi di Claude per singolo annuncio, cosi' le ricerche ripetute non rimandano
+ * al modello gli annunci gia' valutati. La chiave unisce URL dell'annuncio, hash dei suoi campi
+ * e impronta del profilo: se cambia il prezzo o una preferenza l'analisi viene rifatta.
+ * Limitata nel numero di voci (scarta quella usata meno di recente) e con scadenza; con un path
+ * il contenuto viene salvato su disco tra un'esecuzione e l'altra. Thread-safe.
+ */
+public class AnalysisCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalysisCache.class);
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path file;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Ordine di accesso: la voce usata meno di recente viene scartata per prima
+    private final LinkedHashMap<String, StoredAnalysis> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param file       file JSON di persistenza, oppure null per tenere tutto solo in memoria
+     * @param maxEntries numero massimo di analisi conservate, 0 per disattivare la cache
+     * @param ttl        durata di validita' di un'analisi
+     */
+    public AnalysisCache(Path file, int maxEntries, Duration ttl) {
+        this.file = file;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMs = ttl.toMillis();
+        load();
+    }
+
+    /**
+     * Analisi salvata per l'annuncio con questo profilo, associata all'istanza passata;
+     * null se assente o scaduta.
+     */
+    public synchronized ListingAnalysis get(CarListing listing, UserProfile profile) {
+        String key = keyOf(listing, profile);
+        StoredAnalysis stored = key != null ? entries.get(key) : null;
+        if (stored != null && isExpired(stored, System.currentTimeMillis())) {
+            entries.remove(key);
+            evictions++;
+            stored = null;
+        }
+        if (stored == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return stored.toAnalysis(listing);
+    }
+
+    public synchronized void put(CarListing listing, UserProfile profile, ListingAnalysis analysis) {
+        String key = keyOf(listing, profile);
+        if (key == null || maxEntries == 0) return;
+        entries.put(key, StoredAnalysis.of(analysis, System.currentTimeMillis()));
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+
+    public synchronized String summary() {
+        long lookups = hits + misses;
+        return String.format("%d voci, %d hit, %d miss (%.0f%% hit), %d scartate",
+                entries.size(), hits, misses, lookups > 0 ? 100.0 * hits / lookups : 0.0, evictions);
+    }
+
+    public synchronized void save() {
+        if (file == null) return;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "analysis", ".tmp");
+            objectMapper.writeValue(tmp.toFile(), entries);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Impossibile salvare la cache delle analisi in {}: {}", file, e.getMessage());
+        }
+    }
+
+    // ---- Logica interna ----
+
+    /**
+     * "url|hash contenuto|impronta profilo". Contenuto e impronta sono le descrizioni complete di annuncio
+     * e profilo, che includono tutti i campi che finiscono nel prompt.
+     * null per gli annunci senza URL, che non si possono riconoscere tra una ricerca e l'altra.
+     */
+    static String keyOf(CarListing listing, UserProfile profile) {
+        if (listing.getUrl() == null || listing.getUrl().isBlank()) return null;
+        return listing.getUrl() + "|" + Long.toHexString(fnv1a(listing.toDetailedDescription()))
+                + "|" + Long.toHexString(fnv1a(profile.toReadableSummary()));
+    }
+
+    private static long fnv1a(String text) {
+        long hash = FNV_OFFSET;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private boolean isExpired(StoredAnalysis stored, long now) {
+        return now - stored.createdAt > ttlMs;
+    }
+
+    private synchronized void load() {
+        if (file == null || !Files.exists(file)) return;
+        try {
+            Map<String, StoredAnalysis> stored = objectMapper.readValue(file.toFile(),
+                    new TypeReference<LinkedHashMap<String, StoredAnalysis>>() {});
+            long now = System.currentTimeMillis();
+            stored.forEach((key, analysis) -> {
+                if (!isExpired(analysis, now)) entries.put(key, analysis);
+            });
+            log.info("Caricate {} analisi in cache da {} ({} scadute)", entries.size(), file,
+                    stored.size() - entries.size());
+        } catch (IOException e) {
+            log.warn("Impossibile leggere la cache delle analisi da {}: {}", file, e.getMessage());
+        }
+    }
+
+    /** Forma serializzata di un'analisi, senza l'annuncio. */
+    static class StoredAnalysis {
+        public String judgement;
+        public List<String> pros;
+        public List<String> cons;
+        public List<String> redFlags;
+        public int matchScore;
+        public long createdAt;
+
+        static StoredAnalysis of(ListingAnalysis analysis, long createdAt) {
+            StoredAnalysis stored = new StoredAnalysis();
+            stored.judgement = analysis.getJudgement();
+            stored.pros = List.copyOf(analysis.getPros());
+            stored.cons = List.copyOf(analysis.getCons());
+            stored.redFlags = List.copyOf(analysis.getRedFlags());
+            stored.matchScore = analysis.getMatchScore();
+            stored.createdAt = createdAt;
+            return stored;
+        }
+
+        ListingAnalysis toAnalysis(CarListing listing) {
+            ListingAnalysis analysis = new ListingAnalysis();
+            analysis.setListing(listing);
+            analysis.setJudgement(judgement);
+            analysis.setPros(pros != null ? pros : List.of());
+            analysis.setCons(cons != null ? cons : List.of());
+            analysis.setRedFlags(redFlags != null ? redFlags : List.of());
+            analysis.setMatchScore(matchScore);
+            return analysis;
+        }
+    }
+}
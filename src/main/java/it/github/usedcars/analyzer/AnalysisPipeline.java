@@ -0,0 +1,92 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Deduplica, filtro, score e selezione dei migliori N fusi in un solo passaggio:
+ * ogni annuncio attraversa tutti gli stadi appena arriva, senza liste intermedie.
+ * Oltre allo stato della deduplicazione restano in memoria solo i migliori N.
+ * Conta gli annunci per stadio per la diagnostica. Non thread-safe.
+ */
+public class AnalysisPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalysisPipeline.class);
+
+    /** Esito di un annuncio nella pipeline. */
+    public enum Outcome { DUPLICATE, FILTERED_OUT, RANKED }
+
+    private final UserProfile profile;
+    private final ScoringPlan plan;
+    private final DuplicateFilter duplicates;
+    private final TopKHeap top;
+    private final int capacity;
+
+    private int received;
+    private int duplicateCount;
+    private int filteredOut;
+    private int ranked;
+
+    public AnalysisPipeline(CarAnalyzer analyzer, UserProfile profile, int limit) {
+        this.profile = profile;
+        this.plan = analyzer.planFor(profile);
+        this.duplicates = new DuplicateFilter(analyzer);
+        this.top = new TopKHeap(limit);
+        this.capacity = Math.max(0, limit);
+    }
+
+    public Outcome accept(CarListing listing) {
+        int position = received++;
+        if (!duplicates.addIfUnique(listing)) {
+            duplicateCount++;
+            log.debug("Duplicato rimosso: {}", listing.toShortDescription());
+            return Outcome.DUPLICATE;
+        }
+        if (!plan.matches(listing)) {
+            filteredOut++;
+            return Outcome.FILTERED_OUT;
+        }
+        listing.setScore(plan.score(listing));
+        top.offer(listing, position);
+        ranked++;
+        return Outcome.RANKED;
+    }
+
+    /**
+     * Migliori N annunci ricevuti finora, dal migliore al peggiore.
+     */
+    public List<CarListing> getTopResults() {
+        return top.toSortedList();
+    }
+
+    /**
+     * true se nessun annuncio con prezzo almeno {@code minPrice} puo' entrare tra i migliori N:
+     * il K-esimo score attuale supera gia' il massimo ottenibile a quel prezzo.
+     * Un annuncio con lo stesso score non entrerebbe comunque, perche' arriva dopo.
+     */
+    public boolean canStopFrom(int minPrice) {
+        if (capacity == 0) return true;
+        double threshold = top.threshold();
+        return threshold != Double.NEGATIVE_INFINITY && threshold >= plan.upperBound(minPrice);
+    }
+
+    /**
+     * Registra i conteggi per stadio, con lo stesso formato dei singoli passaggi di {@link CarAnalyzer}.
+     */
+    public void logSummary() {
+        int unique = received - duplicateCount;
+        log.info("Deduplicazione: {} -> {} annunci", received, unique);
+        log.info("Filtro criteri: {} -> {} annunci", unique, ranked);
+        CarAnalyzer.logDiscardedAfterDownload(unique, filteredOut);
+    }
+
+    public UserProfile getProfile() { return profile; }
+    public int getReceived() { return received; }
+    public int getDuplicates() { return duplicateCount; }
+    public int getFilteredOut() { return filteredOut; }
+    public int getRankedCount() { return ranked; }
+}
@@ -0,0 +1,345 @@
+package it.github.usedcars.analyzer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import it.github.usedcars.model.AnalysisResult.ListingAnalysis;
+import it.github.usedcars.model.CarListing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Parser della risposta di analisi, in streaming. Se la risposta e' JSON (un array di oggetti, o
+ * oggetti in sequenza, anche dentro un blocco ```json) la decodifica in un solo passaggio con il
+ * parser non bloccante di Jackson, senza costruire alberi: ogni oggetto viene validato e consegnato
+ * appena si chiude. Altrimenti passa tutto ad {@link AnalysisStreamParser}, che legge il formato a
+ * sezioni "## ANNUNCIO n".
+ * <p>
+ * Schema di un oggetto: {@code n} (numero di un annuncio ancora da valutare), {@code giudizio} (testo
+ * non vuoto) e {@code voto} (intero da 1 a 10) obbligatori; {@code pro}, {@code contro} e
+ * {@code red_flag} array di stringhe, facoltativi. Gli oggetti non validi vengono scartati e contati:
+ * i loro annunci restano da valutare. Non thread-safe.
+ */
+final class AnalysisResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private enum Format { UNKNOWN, JSON, TEXT }
+
+    private final Map<Integer, CarListing> waiting;
+    private final Consumer<ListingAnalysis> onAnalysis;
+    private final List<ListingAnalysis> analyses = new ArrayList<>();
+
+    private Format format = Format.UNKNOWN;
+    // Inizio della risposta finche' il formato non e' deciso
+    private final StringBuilder head = new StringBuilder();
+    private int scanFrom;
+    private AnalysisStreamParser textParser;
+
+    private JsonParser json;
+    private ByteArrayFeeder feeder;
+    private char pendingHighSurrogate;
+    private boolean jsonDone;
+    private int depth;
+    private boolean rootArray;
+    private int objectDepth = -1;
+    private Draft draft;
+    private int objectsSeen;
+    private int rejected;
+    private String problem;
+
+    /**
+     * @param listings   annunci da valutare, per numero usato nel prompt
+     * @param onAnalysis chiamato per ogni analisi valida, dal thread che fornisce il testo
+     */
+    AnalysisResponseParser(Map<Integer, CarListing> listings, Consumer<ListingAnalysis> onAnalysis) {
+        this.waiting = new LinkedHashMap<>(listings);
+        this.onAnalysis = onAnalysis;
+    }
+
+    /** Aggiunge un frammento di risposta. */
+    void append(String text) {
+        switch (format) {
+            case JSON -> feedJson(text);
+            case TEXT -> textParser.append(text);
+            case UNKNOWN -> {
+                head.append(text);
+                detectFormat(false);
+            }
+        }
+    }
+
+    /** Fine della risposta: chiude l'eventuale ultima sezione o l'ultimo oggetto. */
+    void finish() {
+        if (format == Format.UNKNOWN) {
+            detectFormat(true);
+        }
+        if (format == Format.TEXT) {
+            textParser.finish();
+        } else if (format == Format.JSON && !jsonDone) {
+            feeder.endOfInput();
+            drainJson();
+            if (depth > 0) {
+                setProblem("JSON troncato");
+            }
+        }
+    }
+
+    /** Analisi valide consegnate finora, nell'ordine di arrivo. */
+    List<ListingAnalysis> analyses() {
+        return textParser != null ? textParser.analyses() : analyses;
+    }
+
+    /** true se la risposta non era JSON ed e' stata letta nel formato a sezioni. */
+    boolean isTextFormat() {
+        return format == Format.TEXT;
+    }
+
+    /** Oggetti JSON o sezioni di testo scartati perche' non rispettano lo schema. */
+    int rejected() {
+        return textParser != null ? textParser.rejected() : rejected;
+    }
+
+    /** Primo problema incontrato nella risposta, null se nessuno. */
+    String problem() {
+        return textParser != null ? textParser.problem() : problem;
+    }
+
+    // ---- Riconoscimento del formato ----
+
+    /**
+     * Salta righe vuote, righe di recinto ``` e preamboli: la prima riga che inizia con '[' o '{'
+     * apre il JSON, una che inizia con '#' o la fine della risposta indicano il formato a sezioni.
+     */
+    private void detectFormat(boolean endOfInput) {
+        while (scanFrom < head.length()) {
+            int lineStart = scanFrom;
+            int i = lineStart;
+            while (i < head.length() && (head.charAt(i) == ' ' || head.charAt(i) == '\t' || head.charAt(i) == '\r')) {
+                i++;
+            }
+            if (i == head.length()) break;
+
+            char first = head.charAt(i);
+            if (first == '[' || first == '{') {
+                startJson(head.substring(i));
+                return;
+            }
+            if (first == '#') {
+                startText();
+                return;
+            }
+            int newline = head.indexOf("\n", i);
+            if (newline < 0) break;
+            scanFrom = newline + 1;
+        }
+        if (endOfInput) {
+            startText();
+        }
+    }
+
+    private void startText() {
+        format = Format.TEXT;
+        textParser = new AnalysisStreamParser(waiting, onAnalysis);
+        textParser.append(head.toString());
+        head.setLength(0);
+    }
+
+    private void startJson(String text) {
+        format = Format.JSON;
+        head.setLength(0);
+        try {
+            json = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        feeder = (ByteArrayFeeder) json.getNonBlockingInputFeeder();
+        feedJson(text);
+    }
+
+    // ---- Decodifica JSON ----
+
+    private void feedJson(String text) {
+        if (jsonDone || text.isEmpty()) return;
+        // Un carattere fuori dal piano base puo' arrivare diviso tra due frammenti
+        if (pendingHighSurrogate != 0) {
+            text = pendingHighSurrogate + text;
+            pendingHighSurrogate = 0;
+        }
+        if (Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+            pendingHighSurrogate = text.charAt(text.length() - 1);
+            text = text.substring(0, text.length() - 1);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            feeder.feedInput(bytes, 0, bytes.length);
+        } catch (IOException e) {
+            failJson(e);
+            return;
+        }
+        drainJson();
+    }
+
+    private void drainJson() {
+        try {
+            JsonToken token;
+            while (!jsonDone && (token = json.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                onToken(token);
+            }
+        } catch (IOException e) {
+            failJson(e);
+        }
+    }
+
+    /**
+     * Errore di sintassi: se arriva tra un valore e l'altro e' testo dopo il JSON (es. la chiusura
+     * del blocco ```), altrimenti la risposta e' malformata. In entrambi i casi si smette di leggere.
+     */
+    private void failJson(IOException e) {
+        if (depth > 0) {
+            setProblem("JSON non valido: " + e.getMessage().lines().findFirst().orElse(""));
+        }
+        jsonDone = true;
+    }
+
+    private void onToken(JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT -> {
+                depth++;
+                if (objectDepth < 0 && (depth == 1 || (depth == 2 && rootArray))) {
+                    objectDepth = depth;
+                    draft = new Draft();
+                    objectsSeen++;
+                }
+            }
+            case END_OBJECT -> {
+                if (depth == objectDepth) {
+                    complete(draft);
+                    draft = null;
+                    objectDepth = -1;
+                }
+                depth--;
+            }
+            case START_ARRAY -> {
+                depth++;
+                if (depth == 1) {
+                    rootArray = true;
+                } else if (depth == objectDepth + 1 && draft.field != null) {
+                    draft.list = new ArrayList<>();
+                }
+            }
+            case END_ARRAY -> {
+                if (draft != null && draft.list != null && depth == objectDepth + 1) {
+                    draft.setList(draft.list);
+                    draft.list = null;
+                }
+                depth--;
+                if (depth == 0 && rootArray) {
+                    jsonDone = true;
+                }
+            }
+            case FIELD_NAME -> {
+                if (depth == objectDepth) {
+                    draft.field = json.currentName();
+                }
+            }
+            case VALUE_STRING -> {
+                if (draft == null) return;
+                if (draft.list != null && depth == objectDepth + 1) {
+                    draft.list.add(json.getText());
+                } else if (depth == objectDepth) {
+                    draft.setText(json.getText());
+                }
+            }
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                if (draft != null && depth == objectDepth) {
+                    draft.setNumber((int) Math.round(json.getDoubleValue()));
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private void complete(Draft draft) {
+        String error = draft.validate(waiting);
+        if (error != null) {
+            rejected++;
+            setProblem("oggetto " + objectsSeen + " " + error);
+            return;
+        }
+        ListingAnalysis analysis = new ListingAnalysis();
+        analysis.setListing(waiting.remove(draft.number));
+        analysis.setJudgement(draft.judgement.trim());
+        analysis.setPros(draft.pros);
+        analysis.setCons(draft.cons);
+        analysis.setRedFlags(draft.redFlags);
+        analysis.setMatchScore(draft.score);
+        analyses.add(analysis);
+        onAnalysis.accept(analysis);
+    }
+
+    private void setProblem(String description) {
+        if (problem == null) problem = description;
+    }
+
+    /** Campi di un oggetto in lettura. */
+    private static final class Draft {
+        String field;
+        List<String> list;
+        Integer number;
+        String judgement;
+        Integer score;
+        List<String> pros = List.of();
+        List<String> cons = List.of();
+        List<String> redFlags = List.of();
+
+        void setNumber(int value) {
+            if ("n".equals(field)) number = value;
+            else if ("voto".equals(field)) score = value;
+        }
+
+        void setText(String value) {
+            switch (field == null ? "" : field) {
+                case "giudizio" -> judgement = value;
+                // Tollera numeri e liste scritti come stringa
+                case "n", "voto" -> {
+                    try {
+                        setNumber(Integer.parseInt(value.trim()));
+                    } catch (NumberFormatException e) {
+                        // resta assente e l'oggetto viene scartato
+                    }
+                }
+                case "pro", "contro", "red_flag" -> setList(value.isBlank() || value.trim().equalsIgnoreCase("nessuna")
+                        ? List.of() : List.of(value.trim()));
+                default -> { }
+            }
+        }
+
+        void setList(List<String> values) {
+            switch (field == null ? "" : field) {
+                case "pro" -> pros = values;
+                case "contro" -> cons = values;
+                case "red_flag" -> redFlags = values;
+                default -> { }
+            }
+        }
+
+        /** Motivo per cui l'oggetto non rispetta lo schema, null se valido. */
+        String validate(Map<Integer, CarListing> waiting) {
+            if (number == null) return "senza n";
+            if (!waiting.containsKey(number)) return "con n=" + number + " non richiesto";
+            if (judgement == null || judgement.isBlank()) return "senza giudizio";
+            if (score == null) return "senza voto";
+            if (score < 1 || score > 10) return "con voto " + score + " fuori scala";
+            return null;
+        }
+    }
+}
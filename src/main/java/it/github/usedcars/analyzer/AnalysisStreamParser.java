@@ -0,0 +1,189 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.AnalysisResult.ListingAnalysis;
+import it.github.usedcars.model.CarListing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser incrementale della risposta di Claude: riceve il testo a frammenti, cosi' come arriva in
+ * streaming, e produce una {@link ListingAnalysis} appena una sezione "## ANNUNCIO N" si chiude,
+ * cioe' quando inizia l'intestazione successiva o finisce la risposta.
+ * Ogni sezione torna all'annuncio con il numero N usato nel prompt. Le sezioni con un numero non
+ * in attesa o senza GIUDIZIO o VOTO vengono scartate e contate, e i loro annunci restano da
+ * valutare. Le altre sezioni "##" (TOP 3, RIASSUNTO) chiudono l'annuncio in corso e vengono ignorate.
+ * Usato da {@link AnalysisResponseParser} quando la risposta non e' JSON.
+ * Non thread-safe: i frammenti di una stessa risposta arrivano in sequenza.
+ */
+final class AnalysisStreamParser {
+
+    private static final Pattern LISTING_HEADER = Pattern.compile("^##\\s*ANNUNCIO\\s*\\[?(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern JUDGEMENT = fieldPattern("GIUDIZIO");
+    private static final Pattern PROS = fieldPattern("PRO");
+    private static final Pattern CONS = fieldPattern("CONTRO");
+    private static final Pattern RED_FLAGS = fieldPattern("RED FLAG");
+    private static final Pattern SCORE = Pattern.compile("VOTO:\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private final Map<Integer, CarListing> waiting;
+    private final Consumer<ListingAnalysis> onAnalysis;
+    private final List<ListingAnalysis> analyses = new ArrayList<>();
+    private final StringBuilder pending = new StringBuilder();
+    private StringBuilder section;
+    private int sectionNumber;
+    private CarListing sectionListing;
+    private int rejected;
+    private String problem;
+
+    /**
+     * @param listings   annunci da valutare, per numero usato nel prompt
+     * @param onAnalysis chiamato per ogni sezione completata, dal thread che fornisce il testo
+     */
+    AnalysisStreamParser(Map<Integer, CarListing> listings, Consumer<ListingAnalysis> onAnalysis) {
+        this.waiting = new LinkedHashMap<>(listings);
+        this.onAnalysis = onAnalysis;
+    }
+
+    /**
+     * Aggiunge un frammento di risposta; le righe complete vengono elaborate subito.
+     */
+    void append(String text) {
+        pending.append(text);
+        int lineStart = 0;
+        for (int newline = pending.indexOf("\n"); newline >= 0; newline = pending.indexOf("\n", lineStart)) {
+            processLine(pending.substring(lineStart, newline));
+            lineStart = newline + 1;
+        }
+        pending.delete(0, lineStart);
+    }
+
+    /**
+     * Fine della risposta: elabora l'ultima riga e chiude la sezione aperta.
+     */
+    void finish() {
+        if (!pending.isEmpty()) {
+            processLine(pending.toString());
+            pending.setLength(0);
+        }
+        closeSection();
+    }
+
+    /** Analisi completate finora, nell'ordine di arrivo. */
+    List<ListingAnalysis> analyses() {
+        return analyses;
+    }
+
+    /** Sezioni scartate perche' non richieste o incomplete. */
+    int rejected() {
+        return rejected;
+    }
+
+    /** Prima sezione scartata, null se nessuna. */
+    String problem() {
+        return problem;
+    }
+
+    // ---- Logica interna ----
+
+    private void processLine(String line) {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("##")) {
+            closeSection();
+            Matcher header = LISTING_HEADER.matcher(trimmed);
+            if (header.find()) {
+                Integer number = parseNumber(header.group(1));
+                if (number != null && waiting.containsKey(number)) {
+                    sectionNumber = number;
+                    sectionListing = waiting.remove(number);
+                    section = new StringBuilder();
+                } else {
+                    reject("sezione ANNUNCIO " + header.group(1) + " non richiesta");
+                }
+            }
+            return;
+        }
+        if (section != null) {
+            section.append(line).append('\n');
+        }
+    }
+
+    private void closeSection() {
+        if (section == null) return;
+        String text = section.toString();
+        section = null;
+
+        String judgement = extractField(text, JUDGEMENT);
+        int score = extractScore(text);
+        if (judgement.isEmpty() || score < 0) {
+            // L'annuncio torna in attesa: una sezione successiva o il nuovo tentativo lo valuteranno
+            waiting.put(sectionNumber, sectionListing);
+            reject("sezione ANNUNCIO " + sectionNumber + (judgement.isEmpty() ? " senza giudizio" : " senza voto"));
+            return;
+        }
+
+        ListingAnalysis analysis = new ListingAnalysis();
+        analysis.setListing(sectionListing);
+        analysis.setJudgement(judgement);
+        analysis.setPros(extractListField(text, PROS));
+        analysis.setCons(extractListField(text, CONS));
+        analysis.setRedFlags(extractListField(text, RED_FLAGS));
+        analysis.setMatchScore(score);
+        analyses.add(analysis);
+        onAnalysis.accept(analysis);
+    }
+
+    private void reject(String description) {
+        rejected++;
+        if (problem == null) problem = description;
+    }
+
+    private static Integer parseNumber(String digits) {
+        try {
+            return Integer.valueOf(digits);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Pattern fieldPattern(String fieldName) {
+        return Pattern.compile(fieldName + ":\\s*(.+?)(?:\n|$)", Pattern.CASE_INSENSITIVE);
+    }
+
+    private static String extractField(String section, Pattern pattern) {
+        Matcher matcher = pattern.matcher(section);
+        if (matcher.find()) {
+            return matcher.group(1).trim();
+        }
+        return "";
+    }
+
+    private static List<String> extractListField(String section, Pattern pattern) {
+        String raw = extractField(section, pattern);
+        if (raw.isEmpty() || raw.equalsIgnoreCase("nessuna") || raw.equalsIgnoreCase("nessuno")) {
+            return List.of();
+        }
+        List<String> items = new ArrayList<>();
+        for (String item : raw.split("\\|")) {
+            String trimmed = item.trim();
+            if (!trimmed.isEmpty()) {
+                items.add(trimmed);
+            }
+        }
+        return items;
+    }
+
+    /** Voto riportato tra 1 e 10, -1 se assente. */
+    private static int extractScore(String section) {
+        Matcher matcher = SCORE.matcher(section);
+        if (matcher.find()) {
+            Integer score = parseNumber(matcher.group(1));
+            return score != null ? Math.max(1, Math.min(10, score)) : -1;
+        }
+        return -1;
+    }
+}
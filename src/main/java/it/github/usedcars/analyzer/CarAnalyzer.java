@@ -5,7 +5,6 @@ import it.github.usedcars.model.UserProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Year;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -13,16 +12,43 @@ public class CarAnalyzer {
 
     private static final Logger log = LoggerFactory.getLogger(CarAnalyzer.class);
 
+    private final NearDuplicateDetector nearDuplicateDetector;
+    private final ScoringWeights weights;
+    private final MarketPriceIndex marketPrices;
+
+    public CarAnalyzer() {
+        this(new NearDuplicateDetector(), ScoringWeights.DEFAULT, new MarketPriceIndex(null));
+    }
+
+    public CarAnalyzer(NearDuplicateDetector nearDuplicateDetector, ScoringWeights weights,
+                       MarketPriceIndex marketPrices) {
+        this.nearDuplicateDetector = nearDuplicateDetector;
+        this.weights = weights;
+        this.marketPrices = marketPrices;
+    }
+
     /**
-     * Rimuove duplicati probabili: stesso titolo normalizzato + prezzo simile (±5%) + stessa zona.
+     * Compila il profilo in un piano di scoring riutilizzabile per qualsiasi numero di annunci.
+     */
+    public ScoringPlan planFor(UserProfile profile) {
+        return ScoringPlan.compile(profile, weights, marketPrices);
+    }
+
+    public MarketPriceIndex getMarketPrices() {
+        return marketPrices;
+    }
+
+    /**
+     * Rimuove duplicati probabili: prima i duplicati esatti (stesso titolo normalizzato, prezzo
+     * arrotondato al migliaio, anno e zona), poi i quasi-duplicati con titolo simile e
+     * prezzo/km/anno compatibili, rilevati da {@link NearDuplicateDetector}.
      */
     public List<CarListing> deduplicate(List<CarListing> listings) {
         List<CarListing> result = new ArrayList<>();
-        Set<String> seen = new HashSet<>();
+        DuplicateFilter duplicates = new DuplicateFilter(this);
 
         for (CarListing listing : listings) {
-            String key = buildDeduplicationKey(listing);
-            if (seen.add(key)) {
+            if (duplicates.addIfUnique(listing)) {
                 result.add(listing);
             } else {
                 log.debug("Duplicato rimosso: {}", listing.toShortDescription());
@@ -38,28 +64,24 @@ public class CarAnalyzer {
      * Tolleranza del 10% sul budget per non escludere offerte al limite.
      */
     public List<CarListing> filterByCriteria(List<CarListing> listings, UserProfile profile) {
-        int budgetLimit = (int) (profile.getMaxBudget() * 1.10);
-
+        ScoringPlan plan = planFor(profile);
         List<CarListing> filtered = listings.stream()
-                .filter(l -> l.getPrice() > 0 && l.getPrice() <= budgetLimit)
-                .filter(l -> profile.getMaxKilometers() <= 0 || l.getKilometers() <= 0
-                        || l.getKilometers() <= profile.getMaxKilometers())
-                .filter(l -> profile.getMinYear() <= 0 || l.getYear() <= 0
-                        || l.getYear() >= profile.getMinYear())
+                .filter(plan::matches)
                 .collect(Collectors.toList());
 
         log.info("Filtro criteri: {} -> {} annunci", listings.size(), filtered.size());
+        logDiscardedAfterDownload(listings.size(), listings.size() - filtered.size());
         return filtered;
     }
 
     /**
      * Calcola uno score per ogni annuncio e ordina dal migliore al peggiore.
-     * Lo score va da 0 a 100.
+     * Con i pesi predefiniti lo score va da 0 a 100.
      */
     public List<CarListing> scoreAndRank(List<CarListing> listings, UserProfile profile) {
+        ScoringPlan plan = planFor(profile);
         for (CarListing listing : listings) {
-            double score = calculateScore(listing, profile);
-            listing.setScore(score);
+            listing.setScore(plan.score(listing));
         }
 
         List<CarListing> ranked = new ArrayList<>(listings);
@@ -70,151 +92,182 @@ public class CarAnalyzer {
     }
 
     /**
-     * Restituisce i migliori N risultati.
+     * Variante a colonne di {@link #filterByCriteria}: restituisce gli indici degli annunci
+     * del batch che rispettano i criteri, in ordine.
      */
-    public List<CarListing> getTopResults(List<CarListing> ranked, int limit) {
-        return ranked.stream().limit(limit).collect(Collectors.toList());
-    }
+    public int[] filterByCriteria(ListingBatch batch, UserProfile profile) {
+        int size = batch.size();
+        boolean[] match = new boolean[size];
+        criteriaMask(batch, planFor(profile), match);
+
+        int[] indexes = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (match[i]) indexes[count++] = i;
+        }
 
-    // ---- Logica interna ----
+        log.info("Filtro criteri: {} -> {} annunci", size, count);
+        logDiscardedAfterDownload(size, size - count);
+        return Arrays.copyOf(indexes, count);
+    }
 
-    private String buildDeduplicationKey(CarListing listing) {
-        String normalizedTitle = Optional.ofNullable(listing.getTitle())
-                .orElse("")
-                .toLowerCase()
-                .replaceAll("[^a-z0-9]", "");
+    /** Esito di {@link ScoringPlan#matches} per ogni annuncio del batch, con una maschera senza salti. */
+    static void criteriaMask(ListingBatch batch, ScoringPlan plan, boolean[] match) {
+        int size = batch.size();
+        int budgetLimit = plan.budgetLimit;
+        int maxKm = plan.maxKilometers;
+        int minYear = plan.minYear;
+        int[] prices = batch.prices;
+        int[] kilometers = batch.kilometers;
+        int[] years = batch.years;
+
+        // Operatori senza corto circuito: il JIT puo' vettorizzare il ciclo
+        for (int i = 0; i < size; i++) {
+            int km = kilometers[i];
+            int year = years[i];
+            match[i] = prices[i] > 0 & prices[i] <= budgetLimit
+                    & (maxKm <= 0 | km <= 0 | km <= maxKm)
+                    & (minYear <= 0 | year <= 0 | year >= minYear);
+        }
+    }
 
-        // Arrotonda il prezzo al migliaio piu vicino per catturare duplicati con prezzo leggermente diverso
-        int priceRounded = (listing.getPrice() / 1000) * 1000;
+    /**
+     * Variante a colonne di {@link ScoringPlan#score}: calcola lo score di tutti gli annunci del batch,
+     * una componente alla volta su array primitivi. Il risultato coincide con quello per oggetto.
+     */
+    public double[] scoreBatch(ListingBatch batch, UserProfile profile) {
+        ScoringPlan plan = planFor(profile);
+        int size = batch.size();
+        double[] scores = new double[size];
+        numericScores(batch, plan, scores);
+        addPriorityScores(batch, plan, scores);
+        byte[] filledFields = batch.filledFields;
+        for (int i = 0; i < size; i++) {
+            scores[i] += plan.completenessScore(filledFields[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            scores[i] += plan.dealScore(batch.marketBuckets[i], batch.prices[i]);
+        }
+        return scores;
+    }
 
-        String zone = Optional.ofNullable(listing.getLocation())
-                .orElse("")
-                .toLowerCase()
-                .trim();
+    /** Prezzo, km e anno, un ciclo per componente sulle colonne del batch. */
+    static void numericScores(ListingBatch batch, ScoringPlan plan, double[] scores) {
+        int size = batch.size();
+        int[] prices = batch.prices;
+        int[] kilometers = batch.kilometers;
+        int[] years = batch.years;
 
-        return normalizedTitle + "|" + priceRounded + "|" + listing.getYear() + "|" + zone;
+        for (int i = 0; i < size; i++) {
+            scores[i] = plan.priceScore(prices[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            scores[i] += plan.kmScore(kilometers[i], years[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            scores[i] += plan.yearScore(years[i]);
+        }
     }
 
     /**
-     * Calcola lo score composito (0-100) basato su:
-     * - Rapporto prezzo/budget (25 punti): piu basso = meglio
-     * - Chilometri (20 punti): meno km = meglio, proporzionato all'eta
-     * - Anno (20 punti): piu recente = meglio
-     * - Match con priorita utente (20 punti)
-     * - Completezza annuncio (15 punti): piu informazioni = piu affidabile
+     * Filtra e valuta il batch e restituisce i migliori N, come la classifica di {@link RankingSession}.
+     * Lo score viene scritto su tutti gli annunci che superano il filtro.
      */
-    private double calculateScore(CarListing listing, UserProfile profile) {
-        double priceScore = calculatePriceScore(listing, profile);
-        double kmScore = calculateKmScore(listing);
-        double yearScore = calculateYearScore(listing);
-        double priorityScore = calculatePriorityScore(listing, profile);
-        double completenessScore = calculateCompletenessScore(listing);
+    public List<CarListing> rankTop(ListingBatch batch, UserProfile profile, int limit) {
+        int[] matching = filterByCriteria(batch, profile);
+        double[] scores = scoreBatch(batch, profile);
+
+        TopKHeap top = new TopKHeap(limit);
+        for (int i = 0; i < matching.length; i++) {
+            CarListing listing = batch.listing(matching[i]);
+            listing.setScore(scores[matching[i]]);
+            top.offer(listing, i);
+        }
 
-        return priceScore + kmScore + yearScore + priorityScore + completenessScore;
+        log.info("Ranking completato per {} annunci (migliori {})", matching.length, limit);
+        return top.toSortedList();
     }
 
-    /** Prezzo: piu basso rispetto al budget = meglio (max 25 punti) */
-    private double calculatePriceScore(CarListing listing, UserProfile profile) {
-        if (listing.getPrice() <= 0 || profile.getMaxBudget() <= 0) return 12.5;
-        double ratio = (double) listing.getPrice() / profile.getMaxBudget();
-        if (ratio <= 0.5) return 25.0;
-        if (ratio >= 1.1) return 0.0;
-        // Scala lineare da 25 (ratio=0.5) a 0 (ratio=1.1)
-        return 25.0 * (1.1 - ratio) / 0.6;
+    /**
+     * Restituisce i migliori N risultati.
+     */
+    public List<CarListing> getTopResults(List<CarListing> ranked, int limit) {
+        return ranked.stream().limit(limit).collect(Collectors.toList());
     }
 
-    /** Km: meno km = meglio, normalizzato rispetto all'eta (max 20 punti) */
-    private double calculateKmScore(CarListing listing) {
-        if (listing.getKilometers() <= 0) return 10.0;
-
-        int currentYear = Year.now().getValue();
-        int age = Math.max(1, currentYear - listing.getYear());
-        // Km medi annui attesi: ~15.000 km/anno
-        double expectedKm = age * 15000.0;
-        double ratio = listing.getKilometers() / expectedKm;
-
-        if (ratio <= 0.5) return 20.0;
-        if (ratio >= 2.0) return 0.0;
-        return 20.0 * (2.0 - ratio) / 1.5;
+    /**
+     * Registra quanti annunci scaricati sono stati scartati solo dopo il download:
+     * misura l'I/O sprecato per i criteri che il sito non ha potuto filtrare.
+     */
+    static void logDiscardedAfterDownload(int downloaded, int discarded) {
+        if (downloaded <= 0) return;
+        log.info("Scartati dopo il download: {} su {} annunci ({}%)",
+                discarded, downloaded, Math.round(discarded * 100.0 / downloaded));
     }
 
-    /** Anno: piu recente = meglio (max 20 punti) */
-    private double calculateYearScore(CarListing listing) {
-        if (listing.getYear() <= 0) return 10.0;
-
-        int currentYear = Year.now().getValue();
-        int age = currentYear - listing.getYear();
-
-        if (age <= 1) return 20.0;
-        if (age >= 15) return 0.0;
-        return 20.0 * (15 - age) / 14.0;
+    NearDuplicateDetector.Index newNearDuplicateIndex() {
+        return nearDuplicateDetector.newIndex();
     }
 
-    /**
-     * Match con la priorita dell'utente (max 20 punti).
-     * Euristica basata su correlazioni tipiche tipo veicolo / alimentazione / priorita.
-     */
-    private double calculatePriorityScore(CarListing listing, UserProfile profile) {
-        String priority = Optional.ofNullable(profile.getPriority()).orElse("").toLowerCase();
-        double score = 10.0; // valore neutro
-
-        switch (priority) {
-            case "prezzo basso":
-                // Gia premiato dal price score, bonus per prezzo molto basso
-                if (listing.getPrice() > 0 && profile.getMaxBudget() > 0) {
-                    double ratio = (double) listing.getPrice() / profile.getMaxBudget();
-                    if (ratio < 0.6) score = 20.0;
-                    else if (ratio < 0.8) score = 15.0;
+    // ---- Logica interna ----
+
+    /** Priorita' dell'utente sul batch, stesse regole di {@link ScoringPlan.Priority}. */
+    private static void addPriorityScores(ListingBatch batch, ScoringPlan plan, double[] scores) {
+        int size = batch.size();
+
+        switch (plan.getPriority()) {
+            case PREZZO_BASSO -> {
+                int budget = plan.budget;
+                for (int i = 0; i < size; i++) {
+                    int price = batch.prices[i];
+                    double ratio = (double) price / budget;
+                    scores[i] += plan.scalePriority(price <= 0 || budget <= 0 ? 10.0
+                            : ratio < 0.6 ? 20.0
+                            : ratio < 0.8 ? 15.0
+                            : 10.0);
                 }
-                break;
-            case "affidabilita":
-                // Meno km e anno recente = piu affidabile
-                if (listing.getKilometers() > 0 && listing.getKilometers() < 80000) score += 5;
-                if (listing.getYear() > 0 && listing.getYear() >= Year.now().getValue() - 5) score += 5;
-                score = Math.min(score, 20.0);
-                break;
-            case "consumi bassi":
-                String fuel = Optional.ofNullable(listing.getFuelType()).orElse("").toLowerCase();
-                if (fuel.contains("ibrida") || fuel.contains("elettrica") || fuel.contains("hybrid")) score = 20.0;
-                else if (fuel.contains("diesel") || fuel.contains("gpl") || fuel.contains("metano")) score = 15.0;
-                else if (fuel.contains("benzina")) score = 8.0;
-                break;
-            case "spazio":
-                // Premiamo SUV, station wagon, monovolume
-                String title = Optional.ofNullable(listing.getTitle()).orElse("").toLowerCase();
-                if (title.contains("suv") || title.contains("station") || title.contains("wagon")
-                        || title.contains("monovolume") || title.contains("spaziosa")) score = 18.0;
-                break;
-            case "prestazioni":
-                // Se c'e la potenza, premiamo valori alti
-                String power = Optional.ofNullable(listing.getPower()).orElse("");
-                try {
-                    int cv = Integer.parseInt(power.replaceAll("[^0-9]", ""));
-                    if (cv >= 200) score = 20.0;
-                    else if (cv >= 150) score = 16.0;
-                    else if (cv >= 100) score = 12.0;
-                } catch (NumberFormatException ignored) {}
-                break;
-            default:
-                break;
+            }
+            case AFFIDABILITA -> {
+                for (int i = 0; i < size; i++) {
+                    int km = batch.kilometers[i];
+                    int year = batch.years[i];
+                    double points = 10.0;
+                    points += km > 0 && km < 80000 ? 5 : 0;
+                    points += year > 0 && year >= plan.recentYear ? 5 : 0;
+                    scores[i] += plan.scalePriority(Math.min(points, 20.0));
+                }
+            }
+            case CONSUMI_BASSI -> {
+                // Una regola per valore del dizionario, poi solo lookup per codice
+                List<String> fuels = batch.fuelDictionary();
+                double[] fuelScores = new double[fuels.size()];
+                for (int code = 0; code < fuelScores.length; code++) {
+                    fuelScores[code] = plan.scalePriority(ScoringPlan.fuelPoints(fuels.get(code)));
+                }
+                double missing = plan.scalePriority(10.0);
+                for (int i = 0; i < size; i++) {
+                    int code = batch.fuelCodes[i];
+                    scores[i] += code < 0 ? missing : fuelScores[code];
+                }
+            }
+            case SPAZIO -> {
+                double spacious = plan.scalePriority(18.0);
+                double neutral = plan.scalePriority(10.0);
+                for (int i = 0; i < size; i++) {
+                    scores[i] += batch.spaciousTitle[i] != 0 ? spacious : neutral;
+                }
+            }
+            case PRESTAZIONI -> {
+                for (int i = 0; i < size; i++) {
+                    scores[i] += plan.scalePriority(ScoringPlan.powerPoints(batch.powerCv[i]));
+                }
+            }
+            case NESSUNA -> {
+                double neutral = plan.scalePriority(10.0);
+                for (int i = 0; i < size; i++) {
+                    scores[i] += neutral;
+                }
+            }
         }
-
-        return score;
-    }
-
-    /** Completezza: piu campi compilati = annuncio piu affidabile (max 15 punti) */
-    private double calculateCompletenessScore(CarListing listing) {
-        int fields = 0;
-        if (listing.getTitle() != null && !listing.getTitle().isBlank()) fields++;
-        if (listing.getPrice() > 0) fields++;
-        if (listing.getYear() > 0) fields++;
-        if (listing.getKilometers() > 0) fields++;
-        if (listing.getFuelType() != null && !listing.getFuelType().isBlank()) fields++;
-        if (listing.getTransmission() != null && !listing.getTransmission().isBlank()) fields++;
-        if (listing.getPower() != null && !listing.getPower().isBlank()) fields++;
-        if (listing.getLocation() != null && !listing.getLocation().isBlank()) fields++;
-        if (listing.getImageUrl() != null && !listing.getImageUrl().isBlank()) fields++;
-        // 9 campi totali
-        return (fields / 9.0) * 15.0;
-    }
-}
\ No newline at end of file
+    }
+}
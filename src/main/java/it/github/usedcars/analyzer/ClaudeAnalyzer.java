@@ -1,76 +1,414 @@
 package it.github.usedcars.analyzer;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import it.github.usedcars.model.AnalysisResult;
 import it.github.usedcars.model.AnalysisResult.ListingAnalysis;
 import it.github.usedcars.model.CarListing;
 import it.github.usedcars.model.UserProfile;
+import it.github.usedcars.scraper.ScraperUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Analisi qualitativa dei migliori annunci con Claude.
+ * Gli annunci sono divisi in blocchi analizzati in parallelo, ognuno con una richiesta breve su un
+ * virtual thread: la durata complessiva si avvicina a quella di un solo blocco invece di crescere
+ * con la lunghezza dell'intera risposta. Un blocco fallito viene ritentato da solo, senza perdere
+ * gli altri. Una chiamata finale, corta, produce TOP 3 e RIASSUNTO dai giudizi gia' raccolti.
+ * Con un modello in streaming ogni analisi viene consegnata appena la sua sezione e' completa,
+ * senza aspettare la fine della generazione.
+ * In modalita' JSON il modello risponde con oggetti validati contro uno schema e decodificati in un
+ * solo passaggio; le risposte in formato testo restano comunque leggibili. Risposte malformate,
+ * ritentativi e analisi di ripiego sono contati e riportati a fine analisi.
+ */
 public class ClaudeAnalyzer {
 
     private static final Logger log = LoggerFactory.getLogger(ClaudeAnalyzer.class);
 
+    private static final int DEFAULT_CHUNK_SIZE = 3;
+    private static final int DEFAULT_MAX_ATTEMPTS = 2;
+    private static final int DEFAULT_TOKEN_BUDGET = 1500;
+    private static final int RETRY_BASE_MS = 1000;
+    private static final int RETRY_MAX_MS = 8000;
+    // Senza frammenti per questo tempo lo streaming e' considerato bloccato e il blocco viene ritentato
+    private static final Duration STREAM_IDLE_TIMEOUT = Duration.ofSeconds(60);
+    private static final int DEFAULT_CACHE_ENTRIES = 500;
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ofDays(3);
+    private static final String DEFAULT_SUMMARY = "Analisi completata. Consulta i dettagli per ogni annuncio.";
+
+    private static final Pattern TOP_THREE_SECTION =
+            Pattern.compile("##\\s*TOP\\s*3(.*?)(?:##|$)", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+    private static final Pattern TOP_THREE_ENTRY =
+            Pattern.compile("\\d+\\.\\s*Annuncio\\s*\\[?(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SUMMARY_SECTION =
+            Pattern.compile("##\\s*RIASSUNTO\\s*\n(.*?)$", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
     private final ChatLanguageModel chatModel;
+    private final StreamingChatLanguageModel streamingModel;
+    private final AnalysisCache cache;
+    private final int chunkSize;
+    private final int maxAttempts;
+    private final int tokenBudget;
+    private final boolean jsonOutput;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Contatori cumulativi sulla qualita' delle risposte
+    private final AtomicLong malformedResponses = new AtomicLong();
+    private final AtomicLong textResponses = new AtomicLong();
+    private final AtomicLong retriedRequests = new AtomicLong();
+    private final AtomicLong placeholderAnalyses = new AtomicLong();
 
     public ClaudeAnalyzer(ChatLanguageModel chatModel) {
+        this(chatModel, null, new AnalysisCache(null, DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_TTL),
+                DEFAULT_CHUNK_SIZE, DEFAULT_MAX_ATTEMPTS, DEFAULT_TOKEN_BUDGET, true);
+    }
+
+    /**
+     * @param streamingModel se presente, le analisi per annuncio arrivano in streaming e ogni
+     *                       sezione viene consegnata appena completa; null per le chiamate bloccanti
+     * @param cache          analisi gia' ottenute, riusate senza chiamare il modello
+     * @param chunkSize      annunci per richiesta
+     * @param maxAttempts    tentativi per blocco, compreso il primo
+     * @param tokenBudget    token stimati per richiesta (prompt piu' risposta attesa) oltre i quali
+     *                       un blocco viene ridotto, 0 per nessun limite
+     * @param jsonOutput     chiede al modello risposte JSON invece del formato a sezioni
+     */
+    public ClaudeAnalyzer(ChatLanguageModel chatModel, StreamingChatLanguageModel streamingModel,
+                          AnalysisCache cache, int chunkSize, int maxAttempts, int tokenBudget,
+                          boolean jsonOutput) {
         this.chatModel = chatModel;
+        this.streamingModel = streamingModel;
+        this.cache = cache;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.tokenBudget = Math.max(0, tokenBudget);
+        this.jsonOutput = jsonOutput;
+    }
+
+    public AnalysisCache getCache() {
+        return cache;
+    }
+
+    /** Risposte scartate in tutto o in parte: JSON non valido, oggetti fuori schema, sezioni mancanti. */
+    public long getMalformedResponses() { return malformedResponses.get(); }
+    /** Risposte lette nel formato a sezioni invece che JSON. */
+    public long getTextResponses() { return textResponses.get(); }
+    /** Richieste ripetute per errori o risposte incomplete. */
+    public long getRetriedRequests() { return retriedRequests.get(); }
+    /** Annunci rimasti con l'analisi minimale di ripiego. */
+    public long getPlaceholderAnalyses() { return placeholderAnalyses.get(); }
+
+    public String parseSummary() {
+        return String.format("%d risposte malformate, %d in formato testo, %d ritentativi, %d analisi di ripiego",
+                malformedResponses.get(), textResponses.get(), retriedRequests.get(), placeholderAnalyses.get());
     }
 
     /**
-     * Analizza qualitativamente i migliori annunci con Claude API.
-     * Costruisce un prompt dettagliato e parsa la risposta strutturata.
+     * Analizza qualitativamente i migliori annunci con Claude API, senza notifiche intermedie.
      */
     public AnalysisResult analyzeListings(List<CarListing> topListings, UserProfile profile) {
-        String prompt = buildAnalysisPrompt(topListings, profile);
+        return analyzeListings(topListings, profile, analysis -> {});
+    }
+
+    /**
+     * Analizza qualitativamente i migliori annunci con Claude API.
+     * Le analisi in cache vengono consegnate subito; solo gli altri annunci vanno al modello, in
+     * blocchi paralleli. Le analisi sono riunite nell'ordine degli annunci e una chiamata finale
+     * produce TOP 3 e riassunto. Se tutti i blocchi falliscono rilancia l'errore dell'ultimo.
+     *
+     * @param onAnalysis riceve ogni analisi appena pronta (in streaming, appena la sua sezione si chiude),
+     *                   in ordine sparso e da thread diversi
+     */
+    public AnalysisResult analyzeListings(List<CarListing> topListings, UserProfile profile,
+                                          Consumer<ListingAnalysis> onAnalysis) {
+        long start = System.nanoTime();
+        Map<CarListing, ListingAnalysis> byListing = new IdentityHashMap<>();
+        List<CarListing> uncached = new ArrayList<>();
+        for (CarListing listing : topListings) {
+            ListingAnalysis cached = cache.get(listing, profile);
+            if (cached != null) {
+                byListing.put(listing, cached);
+                onAnalysis.accept(cached);
+            } else {
+                uncached.add(listing);
+            }
+        }
+
+        // Blocchi di al massimo chunkSize annunci, ridotti se la richiesta stimata supera il budget di token
+        int fixedTokens = PromptEncoder.estimateTokens(buildAnalysisPrompt(Map.of(), profile));
+        List<Map<Integer, CarListing>> chunks = new ArrayList<>();
+        int offset = 0;
+        for (List<CarListing> chunk : PromptEncoder.chunk(uncached, chunkSize, fixedTokens, tokenBudget)) {
+            Map<Integer, CarListing> numbered = new LinkedHashMap<>();
+            for (CarListing listing : chunk) {
+                numbered.put(++offset, listing);
+            }
+            chunks.add(numbered);
+        }
+
+        log.info("Invio richiesta analisi a Claude per {} annunci in {} blocchi paralleli{} ({} gia' in cache)...",
+                uncached.size(), chunks.size(), streamingModel != null ? " (streaming)" : "",
+                topListings.size() - uncached.size());
+        AtomicLong firstAnalysisNanos = new AtomicLong();
+        Consumer<ListingAnalysis> notifier = analysis -> {
+            if (firstAnalysisNanos.compareAndSet(0, System.nanoTime())) {
+                log.info("Prima analisi disponibile dopo {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(firstAnalysisNanos.get() - start));
+            }
+            onAnalysis.accept(analysis);
+        };
+
+        int failedChunks = 0;
+        RuntimeException lastError = null;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<ListingAnalysis>>> pending = new ArrayList<>();
+            for (Map<Integer, CarListing> chunk : chunks) {
+                pending.add(executor.submit(() -> analyzeChunk(chunk, profile, notifier)));
+            }
+
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    pending.get(i).get().forEach(analysis -> byListing.put(analysis.getListing(), analysis));
+                } catch (ExecutionException e) {
+                    failedChunks++;
+                    lastError = e.getCause() instanceof RuntimeException runtime ? runtime
+                            : new IllegalStateException(e.getCause());
+                    log.warn("Blocco {} non analizzato dopo {} tentativi: {}", i + 1, maxAttempts,
+                            e.getCause().getMessage());
+                    List<ListingAnalysis> fallback = fallbackAnalyses(chunks.get(i).values());
+                    placeholderAnalyses.addAndGet(fallback.size());
+                    fallback.forEach(notifier);
+                    fallback.forEach(analysis -> byListing.put(analysis.getListing(), analysis));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Analisi interrotta", e);
+                }
+            }
+        }
+
+        if (failedChunks == chunks.size() && lastError != null) {
+            throw lastError;
+        }
+        log.info("Analisi per annuncio completata in {} ms ({} blocchi falliti su {}), cache: {}, risposte: {}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failedChunks, chunks.size(),
+                cache.summary(), parseSummary());
 
-        log.info("Invio richiesta analisi a Claude per {} annunci...", topListings.size());
-        String responseText = chatModel.chat(prompt);
-        log.debug("Risposta Claude ricevuta ({} caratteri)", responseText.length());
+        List<ListingAnalysis> analyses = new ArrayList<>(topListings.size());
+        for (CarListing listing : topListings) {
+            analyses.add(byListing.get(listing));
+        }
+        return summarize(analyses, topListings, profile);
+    }
+
+    // ---- Blocchi ----
+
+    /**
+     * Analizza un blocco. Le analisi gia' completate restano valide anche se la chiamata fallisce
+     * o la risposta e' incompleta o malformata: il tentativo successivo chiede solo gli annunci mancanti.
+     * All'ultimo tentativo i mancanti ricevono un'analisi minimale; se non si e' ottenuta nessuna
+     * sezione l'errore viene rilanciato.
+     */
+    private List<ListingAnalysis> analyzeChunk(Map<Integer, CarListing> chunk, UserProfile profile,
+                                               Consumer<ListingAnalysis> onAnalysis) throws InterruptedException {
+        List<ListingAnalysis> analyses = new ArrayList<>(chunk.size());
+        Map<Integer, CarListing> remaining = new LinkedHashMap<>(chunk);
+        for (int attempt = 1; ; attempt++) {
+            String numbers = remaining.keySet().toString();
+            // Solo le analisi vere finiscono in cache, non quelle minimali di ripiego
+            AnalysisResponseParser parser = new AnalysisResponseParser(remaining, analysis -> {
+                cache.put(analysis.getListing(), profile, analysis);
+                onAnalysis.accept(analysis);
+            });
+            RuntimeException error = null;
+            try {
+                requestSections(buildAnalysisPrompt(remaining, profile), parser, "annunci " + numbers);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            for (ListingAnalysis analysis : parser.analyses()) {
+                analyses.add(analysis);
+                remaining.values().removeIf(listing -> listing == analysis.getListing());
+            }
+            if (parser.isTextFormat() && jsonOutput) {
+                textResponses.incrementAndGet();
+            }
+            if (error == null && (!remaining.isEmpty() || parser.problem() != null)) {
+                malformedResponses.incrementAndGet();
+            }
+
+            if (remaining.isEmpty()) {
+                return analyses;
+            }
+            if (attempt >= maxAttempts) {
+                if (analyses.isEmpty()) {
+                    throw error != null ? error
+                            : new IllegalStateException("risposta senza analisi riconoscibili"
+                                    + (parser.problem() != null ? " (" + parser.problem() + ")" : ""));
+                }
+                log.warn("Annunci {} senza analisi valida dopo {} tentativi, uso l'analisi minimale",
+                        remaining.keySet(), attempt);
+                List<ListingAnalysis> fallback = fallbackAnalyses(remaining.values());
+                placeholderAnalyses.addAndGet(fallback.size());
+                fallback.forEach(onAnalysis);
+                analyses.addAll(fallback);
+                return analyses;
+            }
+            if (error != null) {
+                log.warn("Errore Claude per gli annunci {}: {}, nuovo tentativo", numbers, error.getMessage());
+            } else {
+                log.warn("Risposta incompleta per gli annunci {} ({} analisi valide, {} scartate{}), nuovo tentativo",
+                        numbers, parser.analyses().size(), parser.rejected(),
+                        parser.problem() != null ? ", " + parser.problem() : "");
+            }
+            retriedRequests.incrementAndGet();
+            ScraperUtils.backoff(attempt, RETRY_BASE_MS, RETRY_MAX_MS);
+        }
+    }
+
+    /**
+     * Invia il prompt e passa la risposta al parser: a frammenti con il modello in streaming,
+     * tutta insieme altrimenti. Se lo streaming si interrompe, o resta senza frammenti oltre
+     * {@link #STREAM_IDLE_TIMEOUT}, l'ultima sezione resta aperta e non viene consegnata e l'errore
+     * fa ritentare il blocco. Registra dimensione stimata del prompt e tempi della chiamata.
+     */
+    private void requestSections(String prompt, AnalysisResponseParser parser, String label)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        if (streamingModel == null) {
+            String responseText = chatModel.chat(prompt);
+            logCall(label, prompt, start, -1, responseText.length());
+            parser.append(responseText);
+            parser.finish();
+            return;
+        }
+
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        AtomicLong firstFragment = new AtomicLong(-1);
+        AtomicLong lastActivity = new AtomicLong(start);
+        AtomicLong responseChars = new AtomicLong();
+        AtomicBoolean abandoned = new AtomicBoolean();
+        streamingModel.chat(prompt, new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                long now = System.nanoTime();
+                firstFragment.compareAndSet(-1, now - start);
+                lastActivity.set(now);
+                responseChars.addAndGet(partialResponse.length());
+                // Dopo un timeout il parser appartiene a un tentativo chiuso: i frammenti tardivi si scartano
+                synchronized (parser) {
+                    if (!abandoned.get()) parser.append(partialResponse);
+                }
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                completed.complete(null);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                completed.completeExceptionally(error);
+            }
+        });
+
+        long idleLimit = STREAM_IDLE_TIMEOUT.toNanos();
+        try {
+            while (true) {
+                long idle = System.nanoTime() - lastActivity.get();
+                if (idle >= idleLimit) {
+                    synchronized (parser) {
+                        abandoned.set(true);
+                    }
+                    throw new IllegalStateException("nessun frammento in streaming da "
+                            + STREAM_IDLE_TIMEOUT.toSeconds() + " s");
+                }
+                try {
+                    completed.get(idleLimit - idle, TimeUnit.NANOSECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // Si ricontrolla: un frammento arrivato durante l'attesa sposta la scadenza
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime
+                    : new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+        logCall(label, prompt, start, firstFragment.get(), responseChars.get());
+        parser.finish();
+    }
 
-        return parseAnalysisResponse(responseText, topListings);
+    private static void logCall(String label, String prompt, long startNanos, long firstFragmentNanos,
+                                long responseChars) {
+        String firstToken = firstFragmentNanos >= 0
+                ? ", primo token dopo " + TimeUnit.NANOSECONDS.toMillis(firstFragmentNanos) + " ms" : "";
+        log.info("Claude, {}: prompt ~{} token ({} caratteri){}, risposta di {} caratteri in {} ms",
+                label, PromptEncoder.estimateTokens(prompt), prompt.length(), firstToken, responseChars,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
     }
 
-    private String buildAnalysisPrompt(List<CarListing> listings, UserProfile profile) {
+    /**
+     * Prompt compatto: profilo in una riga e annunci in tabella, identificati dal numero n.
+     * La risposta richiesta e' un array JSON oppure il formato a sezioni "## ANNUNCIO n".
+     */
+    private String buildAnalysisPrompt(Map<Integer, CarListing> listings, UserProfile profile) {
         StringBuilder sb = new StringBuilder();
         sb.append("Sei un esperto consulente di auto usate in Italia.\n");
-        sb.append("L'utente cerca un'auto con queste caratteristiche:\n\n");
-        sb.append(profile.toReadableSummary()).append("\n\n");
-        sb.append("Ecco i ").append(listings.size()).append(" migliori annunci trovati:\n\n");
-
-        for (int i = 0; i < listings.size(); i++) {
-            sb.append("--- ANNUNCIO ").append(i + 1).append(" ---\n");
-            sb.append(listings.get(i).toDetailedDescription()).append("\n\n");
+        sb.append("Profilo dell'utente: ").append(PromptEncoder.profileLine(profile)).append("\n\n");
+        sb.append("Annunci (campi separati da |, \"-\" = non indicato):\n");
+        sb.append(PromptEncoder.TABLE_HEADER).append("\n");
+        listings.forEach((number, listing) -> sb.append(PromptEncoder.row(number, listing)).append("\n"));
+
+        if (jsonOutput) {
+            sb.append("""
+
+                    Rispondi SOLO con un array JSON, senza testo prima o dopo, con un oggetto per annuncio:
+                    [{"n": <numero dell'annuncio>, "giudizio": "<giudizio sintetico in 1-2 frasi>",
+                      "pro": ["<punto>", ...], "contro": ["<punto>", ...], "red_flag": ["<segnale d'allarme>", ...],
+                      "voto": <intero da 1 a 10>}]
+                    Al massimo 3 pro e 3 contro; "red_flag" e' [] se non ce ne sono.
+                    Rispondi in italiano. Sii diretto e pratico.
+                    """);
+            return sb.toString();
         }
 
+        sb.append("\nPer ciascun annuncio rispondi con ESATTAMENTE questo formato, una sezione per annuncio ")
+                .append("con il suo numero n:\n\n");
+        sb.append("## ANNUNCIO [n]\n");
         sb.append("""
-                Per ciascun annuncio, rispondi con ESATTAMENTE questo formato (una sezione per annuncio):
-
-                ## ANNUNCIO 1
                 GIUDIZIO: [giudizio sintetico in 1-2 frasi]
                 PRO: [punto 1] | [punto 2] | [punto 3]
                 CONTRO: [punto 1] | [punto 2] | [punto 3]
                 RED FLAG: [eventuali segnali d'allarme, oppure "Nessuna"]
                 VOTO: [numero da 1 a 10]
 
-                ## ANNUNCIO 2
-                ...e cosi via per ogni annuncio.
-
-                Alla fine, aggiungi:
-
-                ## TOP 3
-                1. Annuncio [numero]: [breve motivazione]
-                2. Annuncio [numero]: [breve motivazione]
-                3. Annuncio [numero]: [breve motivazione]
-
-                ## RIASSUNTO
-                [2-3 frasi di riassunto generale con consigli per l'utente]
+                ...e cosi via per ogni annuncio. Non aggiungere altre sezioni.
 
                 Rispondi in italiano. Sii diretto e pratico.
                 """);
@@ -79,119 +417,151 @@ public class ClaudeAnalyzer {
     }
 
     /**
-     * Parsa la risposta di Claude nel formato strutturato AnalysisResult.
-     * Il parsing e' tollerante: se il formato non e' perfetto, raccoglie quello che puo.
+     * Analisi minimali per gli annunci che Claude non ha valutato.
      */
-    private AnalysisResult parseAnalysisResponse(String responseText, List<CarListing> listings) {
+    private static List<ListingAnalysis> fallbackAnalyses(Collection<CarListing> listings) {
         List<ListingAnalysis> analyses = new ArrayList<>();
-
-        // Parsa ogni sezione "## ANNUNCIO N"
-        String[] sections = responseText.split("##\\s*ANNUNCIO\\s+\\d+");
-
-        for (int i = 1; i < sections.length && i <= listings.size(); i++) {
-            String section = sections[i];
+        for (CarListing listing : listings) {
             ListingAnalysis analysis = new ListingAnalysis();
-            analysis.setListing(listings.get(i - 1));
-            analysis.setJudgement(extractField(section, "GIUDIZIO"));
-            analysis.setPros(extractListField(section, "PRO"));
-            analysis.setCons(extractListField(section, "CONTRO"));
-            analysis.setRedFlags(extractListField(section, "RED FLAG"));
-            analysis.setMatchScore(extractScore(section));
+            analysis.setListing(listing);
+            analysis.setJudgement("Analisi non disponibile per questo annuncio");
+            analysis.setPros(List.of());
+            analysis.setCons(List.of());
+            analysis.setRedFlags(List.of());
+            analysis.setMatchScore(5);
             analyses.add(analysis);
         }
+        return analyses;
+    }
 
-        // Se il parsing delle sezioni non ha funzionato, crea analisi minimali
-        if (analyses.isEmpty()) {
-            log.warn("Parsing strutturato fallito, creo analisi dalla risposta raw");
-            for (CarListing listing : listings) {
-                ListingAnalysis analysis = new ListingAnalysis();
-                analysis.setListing(listing);
-                analysis.setJudgement("Vedi analisi completa sotto");
-                analysis.setPros(List.of());
-                analysis.setCons(List.of());
-                analysis.setRedFlags(List.of());
-                analysis.setMatchScore(5);
-                analyses.add(analysis);
-            }
-        }
+    // ---- Sintesi finale ----
 
-        // Parsa TOP 3
-        List<CarListing> topThree = parseTopThree(responseText, listings);
+    /**
+     * Chiede TOP 3 e RIASSUNTO passando solo i giudizi gia' ottenuti, non gli annunci completi:
+     * prompt e risposta sono brevi. Se la chiamata fallisce restano i primi 3 per score.
+     */
+    private AnalysisResult summarize(List<ListingAnalysis> analyses, List<CarListing> listings, UserProfile profile) {
+        String responseText = "";
+        try {
+            String prompt = buildSummaryPrompt(analyses, profile);
+            long start = System.nanoTime();
+            responseText = chatModel.chat(prompt);
+            logCall("sintesi", prompt, start, -1, responseText.length());
+        } catch (RuntimeException e) {
+            log.warn("Sintesi TOP 3 non riuscita, uso l'ordine per score: {}", e.getMessage());
+        }
 
-        // Parsa riassunto
-        String summary = extractSummary(responseText);
+        List<CarListing> topThree = new ArrayList<>();
+        String summary;
+        JsonNode json = jsonOutput ? readSummaryJson(responseText) : null;
+        if (json != null) {
+            for (JsonNode pick : json.path("top3")) {
+                addPick(topThree, pick.path("n").asInt(0), listings);
+            }
+            summary = json.path("riassunto").asText("").trim();
+        } else {
+            if (jsonOutput && !responseText.isBlank()) {
+                textResponses.incrementAndGet();
+            }
+            parseTopThree(responseText, listings, topThree);
+            summary = extractSummary(responseText);
+        }
+        if (topThree.isEmpty()) {
+            // Fallback: se non ha trovato top 3, prendi i primi 3
+            topThree.addAll(listings.subList(0, Math.min(3, listings.size())));
+        }
+        if (summary.isEmpty()) {
+            summary = DEFAULT_SUMMARY;
+        }
 
         log.info("Analisi parsata: {} annunci analizzati, {} top picks", analyses.size(), topThree.size());
         return new AnalysisResult(analyses, topThree, summary);
     }
 
-    private String extractField(String section, String fieldName) {
-        Pattern pattern = Pattern.compile(fieldName + ":\\s*(.+?)(?:\n|$)", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(section);
-        if (matcher.find()) {
-            return matcher.group(1).trim();
+    private String buildSummaryPrompt(List<ListingAnalysis> analyses, UserProfile profile) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Sei un esperto consulente di auto usate in Italia.\n");
+        sb.append("Profilo dell'utente: ").append(PromptEncoder.profileLine(profile)).append("\n\n");
+        sb.append("Annunci migliori con il giudizio gia' espresso (campi separati da |):\n");
+        sb.append(PromptEncoder.TABLE_HEADER).append("|voto|giudizio|red flag\n");
+
+        for (int i = 0; i < analyses.size(); i++) {
+            ListingAnalysis analysis = analyses.get(i);
+            sb.append(PromptEncoder.row(i + 1, analysis.getListing()))
+                    .append('|').append(analysis.getMatchScore())
+                    .append('|').append(analysis.getJudgement().replace('|', '/'))
+                    .append('|').append(analysis.getRedFlags().isEmpty() ? "-"
+                            : String.join(", ", analysis.getRedFlags()).replace('|', '/'))
+                    .append("\n");
         }
-        return "";
-    }
 
-    private List<String> extractListField(String section, String fieldName) {
-        String raw = extractField(section, fieldName);
-        if (raw.isEmpty() || raw.equalsIgnoreCase("nessuna") || raw.equalsIgnoreCase("nessuno")) {
-            return List.of();
-        }
-        List<String> items = new ArrayList<>();
-        for (String item : raw.split("\\|")) {
-            String trimmed = item.trim();
-            if (!trimmed.isEmpty()) {
-                items.add(trimmed);
-            }
+        if (jsonOutput) {
+            sb.append("""
+
+                    Rispondi SOLO con un oggetto JSON, senza testo prima o dopo:
+                    {"top3": [{"n": <numero>, "motivo": "<breve motivazione>"}, ...],
+                     "riassunto": "<2-3 frasi di riassunto generale con consigli per l'utente>"}
+                    In "top3" i 3 annunci migliori, dal primo al terzo.
+                    Rispondi in italiano. Sii diretto e pratico.
+                    """);
+            return sb.toString();
         }
-        return items;
+
+        sb.append("""
+
+                Rispondi con ESATTAMENTE questo formato:
+
+                ## TOP 3
+                1. Annuncio [n]: [breve motivazione]
+                2. Annuncio [n]: [breve motivazione]
+                3. Annuncio [n]: [breve motivazione]
+
+                ## RIASSUNTO
+                [2-3 frasi di riassunto generale con consigli per l'utente]
+
+                Rispondi in italiano. Sii diretto e pratico.
+                """);
+
+        return sb.toString();
     }
 
-    private int extractScore(String section) {
-        Pattern pattern = Pattern.compile("VOTO:\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(section);
-        if (matcher.find()) {
-            int score = Integer.parseInt(matcher.group(1));
-            return Math.max(1, Math.min(10, score));
+    /**
+     * Oggetto JSON della sintesi, anche dentro un blocco ```json; null se la risposta non lo contiene
+     * o non e' valida, e allora si prova il formato a sezioni.
+     */
+    private JsonNode readSummaryJson(String responseText) {
+        int open = responseText.indexOf('{');
+        int close = responseText.lastIndexOf('}');
+        if (open < 0 || close < open) return null;
+        try {
+            JsonNode json = objectMapper.readTree(responseText.substring(open, close + 1));
+            return json.isObject() ? json : null;
+        } catch (JsonProcessingException e) {
+            malformedResponses.incrementAndGet();
+            log.warn("Sintesi in JSON non valido, provo il formato a sezioni: {}", e.getOriginalMessage());
+            return null;
         }
-        return 5;
     }
 
-    private List<CarListing> parseTopThree(String responseText, List<CarListing> listings) {
-        List<CarListing> topThree = new ArrayList<>();
-        Pattern pattern = Pattern.compile("##\\s*TOP\\s*3(.*?)(?:##|$)", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(responseText);
+    private static void addPick(List<CarListing> topThree, int number, List<CarListing> listings) {
+        if (number >= 1 && number <= listings.size() && topThree.size() < 3
+                && !topThree.contains(listings.get(number - 1))) {
+            topThree.add(listings.get(number - 1));
+        }
+    }
 
+    private static void parseTopThree(String responseText, List<CarListing> listings, List<CarListing> topThree) {
+        Matcher matcher = TOP_THREE_SECTION.matcher(responseText);
         if (matcher.find()) {
-            String topSection = matcher.group(1);
-            Pattern numPattern = Pattern.compile("\\d+\\.\\s*Annuncio\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
-            Matcher numMatcher = numPattern.matcher(topSection);
+            Matcher numMatcher = TOP_THREE_ENTRY.matcher(matcher.group(1));
             while (numMatcher.find()) {
-                int idx = Integer.parseInt(numMatcher.group(1)) - 1;
-                if (idx >= 0 && idx < listings.size()) {
-                    topThree.add(listings.get(idx));
-                }
+                addPick(topThree, Integer.parseInt(numMatcher.group(1)), listings);
             }
         }
-
-        // Fallback: se non ha trovato top 3, prendi i primi 3
-        if (topThree.isEmpty() && listings.size() >= 3) {
-            topThree.addAll(listings.subList(0, 3));
-        } else if (topThree.isEmpty()) {
-            topThree.addAll(listings);
-        }
-
-        return topThree;
     }
 
-    private String extractSummary(String responseText) {
-        Pattern pattern = Pattern.compile("##\\s*RIASSUNTO\\s*\n(.*?)$", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(responseText);
-        if (matcher.find()) {
-            return matcher.group(1).trim();
-        }
-        return "Analisi completata. Consulta i dettagli per ogni annuncio.";
+    private static String extractSummary(String responseText) {
+        Matcher matcher = SUMMARY_SECTION.matcher(responseText);
+        return matcher.find() ? matcher.group(1).trim() : "";
     }
-}
\ No newline at end of file
+}
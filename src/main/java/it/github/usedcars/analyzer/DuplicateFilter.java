@@ -0,0 +1,25 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+
+/**
+ * Stadio di deduplicazione condiviso da {@link CarAnalyzer#deduplicate} e {@link AnalysisPipeline}:
+ * prima la chiave esatta ({@link ExactDuplicateSet}), poi i quasi-duplicati di
+ * {@link NearDuplicateDetector}. Non thread-safe.
+ */
+final class DuplicateFilter {
+
+    private final ExactDuplicateSet exact = new ExactDuplicateSet();
+    private final NearDuplicateDetector.Index nearDuplicates;
+
+    DuplicateFilter(CarAnalyzer analyzer) {
+        this.nearDuplicates = analyzer.newNearDuplicateIndex();
+    }
+
+    /**
+     * @return true se l'annuncio e' nuovo, false se duplica uno gia' visto
+     */
+    boolean addIfUnique(CarListing listing) {
+        return exact.add(listing) && nearDuplicates.addIfUnique(listing);
+    }
+}
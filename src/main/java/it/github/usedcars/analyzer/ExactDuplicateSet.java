@@ -0,0 +1,163 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Insieme degli annunci gia' visti per la deduplicazione esatta: stesso titolo normalizzato
+ * (solo lettere minuscole e cifre), prezzo arrotondato al migliaio, anno e zona.
+ * Ogni annuncio e' ridotto a un hash a 64 bit calcolato in un'unica scansione dei caratteri,
+ * senza stringhe intermedie, e salvato in una tabella a indirizzamento aperto di long.
+ * A parita' di hash i campi vengono confrontati, quindi le collisioni non scartano annunci diversi.
+ * Non thread-safe.
+ */
+final class ExactDuplicateSet {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long EMPTY = 0;
+
+    private long[] hashes = new long[64];
+    private int[] ids = new int[64];
+    private final List<CarListing> listings = new ArrayList<>();
+
+    /**
+     * @return true se l'annuncio e' nuovo, false se ha la stessa chiave di uno gia' presente
+     */
+    boolean add(CarListing listing) {
+        long hash = hash(listing);
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash && sameKey(listings.get(ids[slot]), listing)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = hash;
+        ids[slot] = listings.size();
+        listings.add(listing);
+        if (listings.size() * 2 > hashes.length) grow();
+        return true;
+    }
+
+    int size() {
+        return listings.size();
+    }
+
+    // ---- Logica interna ----
+
+    static long hash(CarListing listing) {
+        long hash = FNV_OFFSET;
+        String title = listing.getTitle();
+        if (title != null) {
+            for (int i = 0; i < title.length(); i++) {
+                char c = Character.toLowerCase(title.charAt(i));
+                if (isKeyChar(c)) hash = (hash ^ c) * FNV_PRIME;
+            }
+        }
+        hash = (hash ^ '|') * FNV_PRIME;
+        hash = (hash ^ priceBucket(listing.getPrice())) * FNV_PRIME;
+        hash = (hash ^ listing.getYear()) * FNV_PRIME;
+
+        String zone = listing.getLocation();
+        if (zone != null) {
+            int start = zoneStart(zone);
+            int end = zoneEnd(zone, start);
+            for (int i = start; i < end; i++) {
+                hash = (hash ^ Character.toLowerCase(zone.charAt(i))) * FNV_PRIME;
+            }
+        }
+
+        // Finalizzatore di SplitMix64 per disperdere i bit bassi usati come indice; 0 indica slot vuoto
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash ^= hash >>> 31;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static boolean sameKey(CarListing a, CarListing b) {
+        return priceBucket(a.getPrice()) == priceBucket(b.getPrice())
+                && a.getYear() == b.getYear()
+                && sameNormalizedTitle(a.getTitle(), b.getTitle())
+                && sameZone(a.getLocation(), b.getLocation());
+    }
+
+    /** Confronta i titoli considerando solo lettere minuscole e cifre. */
+    private static boolean sameNormalizedTitle(String a, String b) {
+        String left = a != null ? a : "";
+        String right = b != null ? b : "";
+        int i = 0;
+        int j = 0;
+        while (true) {
+            char ca = 0;
+            while (i < left.length() && !isKeyChar(ca = Character.toLowerCase(left.charAt(i)))) i++;
+            char cb = 0;
+            while (j < right.length() && !isKeyChar(cb = Character.toLowerCase(right.charAt(j)))) j++;
+            boolean endA = i >= left.length();
+            boolean endB = j >= right.length();
+            if (endA || endB) return endA && endB;
+            if (ca != cb) return false;
+            i++;
+            j++;
+        }
+    }
+
+    private static boolean sameZone(String a, String b) {
+        String left = a != null ? a : "";
+        String right = b != null ? b : "";
+        int startA = zoneStart(left);
+        int startB = zoneStart(right);
+        int lengthA = zoneEnd(left, startA) - startA;
+        int lengthB = zoneEnd(right, startB) - startB;
+        if (lengthA != lengthB) return false;
+        for (int k = 0; k < lengthA; k++) {
+            if (Character.toLowerCase(left.charAt(startA + k)) != Character.toLowerCase(right.charAt(startB + k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKeyChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
+
+    /** Prezzo arrotondato al migliaio per catturare duplicati con prezzo leggermente diverso. */
+    private static int priceBucket(int price) {
+        return (price / 1000) * 1000;
+    }
+
+    /** Estremi della zona come in {@link String#trim()}. */
+    private static int zoneStart(String zone) {
+        int start = 0;
+        while (start < zone.length() && zone.charAt(start) <= ' ') start++;
+        return start;
+    }
+
+    private static int zoneEnd(String zone, int start) {
+        int end = zone.length();
+        while (end > start && zone.charAt(end - 1) <= ' ') end--;
+        return end;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        int[] oldIds = ids;
+        hashes = new long[oldHashes.length * 2];
+        ids = new int[oldIds.length * 2];
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            long hash = oldHashes[i];
+            if (hash == EMPTY) continue;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (hashes[slot] != EMPTY) slot = (slot + 1) & mask;
+            hashes[slot] = hash;
+            ids[slot] = oldIds[i];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.SearchCriteria;
+import it.github.usedcars.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deduplica, filtra e calcola lo score degli annunci man mano che arrivano dagli scraper,
+ * con una {@link AnalysisPipeline}: la classifica e' disponibile gia' dopo la prima pagina scaricata.
+ * Gli annunci non duplicati alimentano anche i prezzi di mercato e restano disponibili per una
+ * {@link RankingSession}, senza rifare la deduplicazione.
+ * Thread-safe: i blocchi possono arrivare in parallelo da fonti diverse.
+ */
+public class IncrementalRanker {
+
+    private final AnalysisPipeline pipeline;
+    private final MarketPriceIndex marketPrices;
+    private final String marketContext;
+    private final List<CarListing> unique = new ArrayList<>();
+
+    /**
+     * @param limit numero di migliori risultati da mantenere
+     */
+    public IncrementalRanker(CarAnalyzer analyzer, UserProfile profile, int limit) {
+        this.pipeline = new AnalysisPipeline(analyzer, profile, limit);
+        this.marketPrices = analyzer.getMarketPrices();
+        // Gli annunci arrivano dalla ricerca con i filtri del profilo
+        this.marketContext = MarketPriceIndex.contextOf(SearchCriteria.fromProfile(profile));
+    }
+
+    /**
+     * Aggiunge un blocco di annunci alla classifica.
+     */
+    public synchronized void accept(List<CarListing> batch) {
+        for (CarListing listing : batch) {
+            // Anche le auto fuori budget servono per i prezzi di mercato
+            if (pipeline.accept(listing) != AnalysisPipeline.Outcome.DUPLICATE) {
+                unique.add(listing);
+                marketPrices.record(marketContext, listing);
+            }
+        }
+    }
+
+    /**
+     * Cutoff per lo scraping ordinato per prezzo: vedi {@link AnalysisPipeline#canStopFrom}.
+     */
+    public synchronized boolean canStopFrom(int minPrice) {
+        return pipeline.canStopFrom(minPrice);
+    }
+
+    /**
+     * Restituisce i migliori annunci ricevuti finora (al massimo il limite del costruttore),
+     * dal migliore al peggiore.
+     */
+    public synchronized List<CarListing> getTopResults(int limit) {
+        List<CarListing> top = pipeline.getTopResults();
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+
+    /**
+     * Annunci ricevuti senza i duplicati, nell'ordine di arrivo.
+     */
+    public synchronized List<CarListing> getUniqueListings() {
+        return new ArrayList<>(unique);
+    }
+
+    /**
+     * Registra i conteggi per stadio della pipeline.
+     */
+    public synchronized void logDiscarded() {
+        pipeline.logSummary();
+    }
+
+    public UserProfile getProfile() { return pipeline.getProfile(); }
+
+    public synchronized int getReceived() { return pipeline.getReceived(); }
+    public synchronized int getDuplicates() { return pipeline.getDuplicates(); }
+    public synchronized int getFilteredOut() { return pipeline.getFilteredOut(); }
+    public synchronized int getRankedCount() { return pipeline.getRankedCount(); }
+}
@@ -0,0 +1,118 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rappresentazione a colonne (struct-of-arrays) di un insieme di annunci, per filtrare e
+ * valutare grandi volumi senza passare dai getter di ogni {@link CarListing}.
+ * I campi numerici stanno in array primitivi; alimentazione, cambio e zona sono codificati
+ * con un dizionario (codice int per valore distinto, -1 se assente). I campi usati solo dallo
+ * score (completezza, potenza, parole chiave nel titolo, gruppo dei prezzi di mercato) sono
+ * precalcolati alla costruzione.
+ * Immutabile dopo la creazione.
+ */
+public final class ListingBatch {
+
+    private final List<CarListing> listings;
+    private final int size;
+
+    final int[] prices;
+    final int[] kilometers;
+    final int[] years;
+    final int[] fuelCodes;
+    final int[] transmissionCodes;
+    final int[] locationCodes;
+    /** Numero di campi compilati (0-9), come in {@link ScoringPlan#filledFields}. */
+    final byte[] filledFields;
+    /** Potenza in CV estratta dal testo, -1 se non interpretabile. */
+    final int[] powerCv;
+    /** 1 se il titolo indica un'auto spaziosa (SUV, station wagon, monovolume...). */
+    final byte[] spaciousTitle;
+    /** Gruppo dei prezzi di mercato, come in {@link MarketPriceIndex#bucketOf}. */
+    final String[] marketBuckets;
+
+    private final Dictionary fuels;
+    private final Dictionary transmissions;
+    private final Dictionary locations;
+
+    private ListingBatch(List<CarListing> listings) {
+        this.listings = listings;
+        this.size = listings.size();
+        this.prices = new int[size];
+        this.kilometers = new int[size];
+        this.years = new int[size];
+        this.fuelCodes = new int[size];
+        this.transmissionCodes = new int[size];
+        this.locationCodes = new int[size];
+        this.filledFields = new byte[size];
+        this.powerCv = new int[size];
+        this.spaciousTitle = new byte[size];
+        this.marketBuckets = new String[size];
+        this.fuels = new Dictionary();
+        this.transmissions = new Dictionary();
+        this.locations = new Dictionary();
+    }
+
+    /**
+     * Costruisce il batch dagli annunci, nello stesso ordine.
+     */
+    public static ListingBatch of(List<CarListing> listings) {
+        ListingBatch batch = new ListingBatch(new ArrayList<>(listings));
+        for (int i = 0; i < batch.size; i++) {
+            CarListing listing = batch.listings.get(i);
+            batch.prices[i] = listing.getPrice();
+            batch.kilometers[i] = listing.getKilometers();
+            batch.years[i] = listing.getYear();
+            batch.fuelCodes[i] = batch.fuels.encode(normalize(listing.getFuelType()));
+            batch.transmissionCodes[i] = batch.transmissions.encode(normalize(listing.getTransmission()));
+            batch.locationCodes[i] = batch.locations.encode(normalize(listing.getLocation()));
+            batch.filledFields[i] = (byte) ScoringPlan.filledFields(listing);
+            batch.powerCv[i] = ScoringPlan.parsePower(listing.getPower());
+            batch.spaciousTitle[i] = (byte) (ScoringPlan.containsAny(listing.getTitle(), ScoringPlan.SPACIOUS_WORDS) ? 1 : 0);
+            batch.marketBuckets[i] = MarketPriceIndex.bucketOf(listing);
+        }
+        return batch;
+    }
+
+    public int size() { return size; }
+
+    public CarListing listing(int index) { return listings.get(index); }
+
+    /** Alimentazioni distinte, indicizzate per codice (minuscole). */
+    public List<String> fuelDictionary() { return fuels.values(); }
+
+    /** Cambi distinti, indicizzati per codice (minuscoli). */
+    public List<String> transmissionDictionary() { return transmissions.values(); }
+
+    /** Zone distinte, indicizzate per codice (minuscole). */
+    public List<String> locationDictionary() { return locations.values(); }
+
+    // ---- Logica interna ----
+
+    private static String normalize(String value) {
+        return value == null || value.isBlank() ? null : value.trim().toLowerCase();
+    }
+
+    /** Dizionario valore -> codice progressivo. */
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int encode(String value) {
+            if (value == null) return -1;
+            return codes.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+
+        List<String> values() {
+            return List.copyOf(values);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Indici in memoria sugli annunci della sessione, per rispondere alle richieste di affinamento
+ * ("solo diesel sotto 80.000 km", "solo Golf dal 2019") senza rifare ricerca o pipeline.
+ * Alimentazione, cambio, fonte, marca e modello hanno una bitmap per valore; prezzo, km e anno
+ * un array ordinato in cui gli intervalli si trovano con ricerca binaria. Una query combina le
+ * bitmap con AND. Gli score sono calcolati alla costruzione e tenuti dall'indice, senza toccare
+ * quelli degli annunci. Immutabile dopo la costruzione, quindi thread-safe.
+ */
+public class ListingIndex {
+
+    /** Campo di ordinamento dei risultati. */
+    public enum SortField { SCORE, PRICE, KILOMETERS, YEAR }
+
+    private final List<CarListing> listings;
+    private final double[] scores;
+    private final Map<String, BitSet> byFuel = new HashMap<>();
+    private final Map<String, BitSet> byTransmission = new HashMap<>();
+    private final Map<String, BitSet> bySource = new HashMap<>();
+    private final Map<String, BitSet> byBrand = new HashMap<>();
+    private final Map<String, BitSet> byModel = new HashMap<>();
+    private final SortedColumn prices;
+    private final SortedColumn kilometers;
+    private final SortedColumn years;
+
+    /**
+     * @param plan piano con cui calcolare gli score, oppure null (score 0: resta l'ordine di arrivo)
+     */
+    public ListingIndex(List<CarListing> listings, ScoringPlan plan) {
+        this.listings = List.copyOf(listings);
+        int size = this.listings.size();
+        this.scores = new double[size];
+        int[] priceValues = new int[size];
+        int[] kmValues = new int[size];
+        int[] yearValues = new int[size];
+
+        for (int id = 0; id < size; id++) {
+            CarListing listing = this.listings.get(id);
+            put(byFuel, listing.getFuelType(), id);
+            put(byTransmission, listing.getTransmission(), id);
+            put(bySource, listing.getSource(), id);
+            String[] words = titleWords(listing.getTitle());
+            if (words.length > 0) put(byBrand, words[0], id);
+            if (words.length > 1) put(byModel, words[1], id);
+            priceValues[id] = listing.getPrice();
+            kmValues[id] = listing.getKilometers();
+            yearValues[id] = listing.getYear();
+            if (plan != null) scores[id] = plan.score(listing);
+        }
+
+        this.prices = new SortedColumn(priceValues);
+        this.kilometers = new SortedColumn(kmValues);
+        this.years = new SortedColumn(yearValues);
+    }
+
+    public int size() {
+        return listings.size();
+    }
+
+    /**
+     * Restituisce gli annunci che soddisfano la query, ordinati e limitati come richiesto.
+     */
+    public List<Hit> query(Query query) {
+        BitSet result = new BitSet(listings.size());
+        result.set(0, listings.size());
+
+        and(result, byFuel, query.fuel);
+        and(result, byTransmission, query.transmission);
+        and(result, bySource, query.source);
+        and(result, byBrand, query.brand);
+        and(result, byModel, query.model);
+        // Prezzo sconosciuto escluso; km e anno sconosciuti ammessi, come nel filtro di CarAnalyzer
+        if (query.minPrice > 0 || query.maxPrice > 0) {
+            prices.restrict(result, Math.max(1, query.minPrice), query.maxPrice, false);
+        }
+        if (query.minKilometers > 0 || query.maxKilometers > 0) {
+            kilometers.restrict(result, query.minKilometers, query.maxKilometers, true);
+        }
+        if (query.minYear > 0 || query.maxYear > 0) {
+            years.restrict(result, query.minYear, query.maxYear, true);
+        }
+
+        return sorted(result, query);
+    }
+
+    // ---- Logica interna ----
+
+    private List<Hit> sorted(BitSet result, Query query) {
+        int limit = query.limit > 0 ? query.limit : Integer.MAX_VALUE;
+        List<Hit> matches = new ArrayList<>(Math.min(result.cardinality(), Math.min(limit, 1024)));
+
+        SortedColumn column = switch (query.sortBy) {
+            case PRICE -> prices;
+            case KILOMETERS -> kilometers;
+            case YEAR -> years;
+            case SCORE -> null;
+        };
+
+        if (column != null) {
+            // Gli array ordinati danno gia' l'ordine: basta scorrerli tenendo gli id selezionati.
+            // Gli annunci senza quel valore non hanno una posizione sensata e vanno in coda
+            int[] order = column.order;
+            for (int k = 0; k < order.length && matches.size() < limit; k++) {
+                int id = order[query.descending ? order.length - 1 - k : k];
+                if (result.get(id) && !column.missing.get(id)) matches.add(hit(id));
+            }
+            for (int id = column.missing.nextSetBit(0); id >= 0 && matches.size() < limit;
+                 id = column.missing.nextSetBit(id + 1)) {
+                if (result.get(id)) matches.add(hit(id));
+            }
+            return matches;
+        }
+
+        // Per lo score basta tenere i migliori N: min-heap limitato invece di ordinare tutto.
+        // A parita' di score viene prima l'annuncio arrivato prima
+        Comparator<Integer> byScore = (a, b) -> Double.compare(scores[a], scores[b]);
+        Comparator<Integer> order = (query.descending ? byScore.reversed() : byScore)
+                .thenComparingInt(Integer::intValue);
+        PriorityQueue<Integer> best = new PriorityQueue<>(order.reversed());
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+            best.add(id);
+            if (best.size() > limit) best.poll();
+        }
+        List<Integer> ids = new ArrayList<>(best);
+        ids.sort(order);
+        for (int id : ids) {
+            matches.add(hit(id));
+        }
+        return matches;
+    }
+
+    private Hit hit(int id) {
+        return new Hit(listings.get(id), scores[id]);
+    }
+
+    /**
+     * Restringe il risultato ai valori che contengono il termine cercato ("ibrida" trova anche
+     * "ibrida benzina/elettrica"); nessun effetto se il termine e' vuoto.
+     */
+    private void and(BitSet result, Map<String, BitSet> index, String term) {
+        String normalized = normalize(term);
+        if (normalized == null) return;
+        BitSet matching = new BitSet(listings.size());
+        index.forEach((value, ids) -> {
+            if (value.contains(normalized)) matching.or(ids);
+        });
+        result.and(matching);
+    }
+
+    private static void put(Map<String, BitSet> index, String value, int id) {
+        String normalized = normalize(value);
+        if (normalized == null) return;
+        index.computeIfAbsent(normalized, v -> new BitSet()).set(id);
+    }
+
+    private static String normalize(String value) {
+        return value == null || value.isBlank() ? null : value.trim().toLowerCase();
+    }
+
+    private static String[] titleWords(String title) {
+        if (title == null) return new String[0];
+        String normalized = title.toLowerCase().replaceAll("^[^a-z0-9]+", "");
+        return normalized.isEmpty() ? new String[0] : normalized.split("[^a-z0-9]+", 3);
+    }
+
+    /** Valori di una colonna ordinati, con la posizione originale di ciascuno. */
+    private static final class SortedColumn {
+        private final int[] valuesById;
+        private final int[] values;
+        private final int[] order;
+        private final BitSet missing = new BitSet();
+
+        SortedColumn(int[] columnValues) {
+            this.valuesById = columnValues;
+            Integer[] boxed = new Integer[columnValues.length];
+            for (int i = 0; i < boxed.length; i++) boxed[i] = i;
+            Arrays.sort(boxed, Comparator.comparingInt(i -> columnValues[i]));
+
+            this.order = new int[boxed.length];
+            this.values = new int[boxed.length];
+            for (int k = 0; k < boxed.length; k++) {
+                order[k] = boxed[k];
+                values[k] = columnValues[boxed[k]];
+                if (values[k] <= 0) missing.set(boxed[k]);
+            }
+        }
+
+        /**
+         * Tiene nel risultato solo gli id con valore in [min, max] (0 = estremo aperto), piu' quelli
+         * senza valore se richiesto. Sceglie il lavoro minore: se l'intervallo e' piu' piccolo del
+         * risultato costruisce la bitmap dall'array ordinato, altrimenti controlla i soli id rimasti.
+         */
+        void restrict(BitSet result, int min, int max, boolean includeMissing) {
+            int low = Math.max(min, 1);
+            int from = lowerBound(low);
+            int to = max > 0 ? lowerBound(max + 1) : values.length;
+
+            if (to - from < result.cardinality()) {
+                BitSet ids = new BitSet(order.length);
+                for (int k = from; k < to; k++) ids.set(order[k]);
+                if (includeMissing) ids.or(missing);
+                result.and(ids);
+                return;
+            }
+
+            for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+                int value = valuesById[id];
+                boolean keep = value <= 0 ? includeMissing : value >= low && (max <= 0 || value <= max);
+                if (!keep) result.clear(id);
+            }
+        }
+
+        private int lowerBound(int value) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < value) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+    }
+
+    /** Annuncio trovato da una query, con lo score calcolato dall'indice. */
+    public static final class Hit {
+        private final CarListing listing;
+        private final double score;
+
+        private Hit(CarListing listing, double score) {
+            this.listing = listing;
+            this.score = score;
+        }
+
+        public CarListing getListing() { return listing; }
+        public double getScore() { return score; }
+    }
+
+    /**
+     * Filtri e ordinamento di una richiesta. I campi vuoti o a 0 non filtrano.
+     */
+    public static class Query {
+        private String fuel;
+        private String transmission;
+        private String source;
+        private String brand;
+        private String model;
+        private int minPrice;
+        private int maxPrice;
+        private int minKilometers;
+        private int maxKilometers;
+        private int minYear;
+        private int maxYear;
+        private SortField sortBy = SortField.SCORE;
+        private boolean descending = true;
+        private int limit;
+
+        public Query() {}
+
+        public void setFuel(String fuel) { this.fuel = fuel; }
+        public void setTransmission(String transmission) { this.transmission = transmission; }
+        public void setSource(String source) { this.source = source; }
+        public void setBrand(String brand) { this.brand = brand; }
+        public void setModel(String model) { this.model = model; }
+        public void setMinPrice(int minPrice) { this.minPrice = minPrice; }
+        public void setMaxPrice(int maxPrice) { this.maxPrice = maxPrice; }
+        public void setMinKilometers(int minKilometers) { this.minKilometers = minKilometers; }
+        public void setMaxKilometers(int maxKilometers) { this.maxKilometers = maxKilometers; }
+        public void setMinYear(int minYear) { this.minYear = minYear; }
+        public void setMaxYear(int maxYear) { this.maxYear = maxYear; }
+        public void setSortBy(SortField sortBy) { this.sortBy = sortBy; }
+        public void setDescending(boolean descending) { this.descending = descending; }
+        public void setLimit(int limit) { this.limit = limit; }
+    }
+}
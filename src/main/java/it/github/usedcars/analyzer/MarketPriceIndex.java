@@ -0,0 +1,236 @@
+package it.github.usedcars.analyzer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.SearchCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distribuzione dei prezzi di mercato per modello, fascia d'anno e fascia di km, alimentata
+ * da tutti gli annunci scaricati. Gli annunci arrivano gia' filtrati dal sito (prezzo massimo,
+ * km, anno, alimentazione, cambio, zona), che taglia la distribuzione: ogni gruppo e' quindi
+ * legato al contesto di filtro della ricerca ({@link #contextOf}) e i prezzi raccolti con filtri
+ * diversi non si mescolano. Ogni gruppo e' un {@link PriceSketch} a memoria costante e il
+ * numero di gruppi e' limitato (scarta quello usato meno di recente), quindi la memoria resta
+ * limitata qualunque sia il numero di annunci. Con un path il contenuto viene salvato su disco
+ * tra un'esecuzione e l'altra. Thread-safe.
+ * Lo scoring non interroga l'indice ma una {@link Snapshot} presa alla compilazione del piano:
+ * letture senza lock e score che non dipendono dall'ordine in cui arrivano gli annunci.
+ */
+public class MarketPriceIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(MarketPriceIndex.class);
+
+    private static final int MAX_BUCKETS = 2000;
+    private static final int MIN_SAMPLES = 5;
+    private static final int YEAR_BAND = 3;
+    private static final int KM_BAND = 50000;
+    // Gruppo degli annunci il cui titolo non ne individua uno
+    private static final String NO_BUCKET = "";
+    // Separa il contesto di filtro dal gruppo nelle chiavi degli sketch
+    private static final char CONTEXT_SEPARATOR = '#';
+
+    private final Path file;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Ordine di accesso: il gruppo usato meno di recente viene scartato per primo
+    private final LinkedHashMap<String, PriceSketch> sketches = new LinkedHashMap<>(16, 0.75f, true);
+    // Snapshot per contesto, invalidate da ogni nuovo prezzo
+    private final Map<String, Snapshot> snapshots = new HashMap<>();
+
+    /**
+     * @param file file JSON di persistenza, oppure null per tenere tutto solo in memoria
+     */
+    public MarketPriceIndex(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Contesto di filtro di una ricerca: i filtri che il sito applica prima di restituire gli
+     * annunci, es. "15000|150000|2012|diesel|-|milano". Marca e modello non servono, fanno gia'
+     * parte del gruppo.
+     */
+    public static String contextOf(SearchCriteria criteria) {
+        return criteria.getMaxPrice() + "|" + criteria.getMaxKilometers() + "|" + criteria.getMinYear()
+                + "|" + orDash(criteria.getFuelType()) + "|" + orDash(criteria.getTransmission())
+                + "|" + orDash(criteria.getLocation() != null ? criteria.getLocation().toLowerCase().trim() : null);
+    }
+
+    /**
+     * Registra il prezzo degli annunci, scaricati con il contesto di filtro indicato.
+     */
+    public synchronized void recordAll(String context, List<CarListing> listings) {
+        listings.forEach(listing -> record(context, listing));
+    }
+
+    /**
+     * Registra il prezzo di un annuncio, scaricato con il contesto di filtro indicato, nel suo gruppo.
+     */
+    public synchronized void record(String context, CarListing listing) {
+        if (listing.getPrice() <= 0) return;
+        String bucket = bucketOf(listing);
+        if (bucket == NO_BUCKET) return;
+        sketches.computeIfAbsent(context + CONTEXT_SEPARATOR + bucket, k -> new PriceSketch()).add(listing.getPrice());
+        snapshots.clear();
+
+        Iterator<String> eldest = sketches.keySet().iterator();
+        while (sketches.size() > MAX_BUCKETS && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Copia immutabile dei gruppi del contesto con abbastanza campioni, riusata finche' non
+     * arrivano nuovi prezzi.
+     */
+    public synchronized Snapshot snapshot(String context) {
+        return snapshots.computeIfAbsent(context, c -> {
+            String prefix = c + CONTEXT_SEPARATOR;
+            Map<String, PriceSketch.Frozen> frozen = new HashMap<>();
+            sketches.forEach((key, sketch) -> {
+                if (key.startsWith(prefix) && sketch.count() >= MIN_SAMPLES) {
+                    frozen.put(key.substring(prefix.length()), sketch.freeze());
+                }
+            });
+            return frozen.isEmpty() ? Snapshot.EMPTY : new Snapshot(frozen);
+        });
+    }
+
+    public synchronized int getBucketCount() {
+        return sketches.size();
+    }
+
+    public synchronized void save() {
+        if (file == null) return;
+        Map<String, StoredSketch> stored = new LinkedHashMap<>();
+        sketches.forEach((key, sketch) -> stored.put(key, StoredSketch.of(sketch)));
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "prices", ".tmp");
+            objectMapper.writeValue(tmp.toFile(), stored);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Impossibile salvare i prezzi di mercato in {}: {}", file, e.getMessage());
+        }
+    }
+
+    // ---- Logica interna ----
+
+    /**
+     * Gruppo dell'annuncio, {@code NO_BUCKET} se il titolo non ne individua uno. Chi valuta molti
+     * annunci lo calcola una volta sola: colonna di {@link ListingBatch}, componente "affare" di
+     * {@link RankingSession}.
+     */
+    static String bucketOf(CarListing listing) {
+        String key = bucketKey(listing);
+        return key != null ? key : NO_BUCKET;
+    }
+
+    /**
+     * Gruppo "marca modello|fascia anno|fascia km", es. "volkswagen golf|2015|1".
+     * Marca e modello sono le prime due parole del titolo.
+     */
+    static String bucketKey(CarListing listing) {
+        String title = listing.getTitle();
+        if (title == null) return null;
+        String[] words = title.toLowerCase().replaceAll("[^a-z0-9 ]", " ").trim().split("\\s+");
+        if (words.length < 2 || words[0].isEmpty()) return null;
+
+        String yearBand = listing.getYear() > 0 ? String.valueOf(listing.getYear() / YEAR_BAND * YEAR_BAND) : "?";
+        String kmBand = listing.getKilometers() > 0 ? String.valueOf(listing.getKilometers() / KM_BAND) : "?";
+        return words[0] + " " + words[1] + "|" + yearBand + "|" + kmBand;
+    }
+
+    private static String orDash(String value) {
+        return value == null || value.isBlank() ? "-" : value;
+    }
+
+    private synchronized void load() {
+        if (file == null || !Files.exists(file)) return;
+        try {
+            Map<String, StoredSketch> stored = objectMapper.readValue(file.toFile(),
+                    new TypeReference<LinkedHashMap<String, StoredSketch>>() {});
+            int legacy = 0;
+            for (Map.Entry<String, StoredSketch> entry : stored.entrySet()) {
+                // Gruppi salvati senza contesto di filtro: prezzi di ricerche diverse mescolati
+                if (entry.getKey().indexOf(CONTEXT_SEPARATOR) < 0) {
+                    legacy++;
+                    continue;
+                }
+                sketches.put(entry.getKey(), entry.getValue().toSketch());
+            }
+            snapshots.clear();
+            log.info("Caricati {} gruppi di prezzi di mercato da {}", sketches.size(), file);
+            if (legacy > 0) {
+                log.info("Scartati {} gruppi senza contesto di filtro", legacy);
+            }
+        } catch (IOException e) {
+            log.warn("Impossibile leggere i prezzi di mercato da {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Prezzi di mercato di un contesto di filtro, congelati in un istante. Immutabile e thread-safe;
+     * {@link #pricePercentile(String, int)} non prende lock e non alloca.
+     */
+    public static final class Snapshot {
+
+        /** Nessun dato di mercato: tutti i percentili sono NaN. */
+        public static final Snapshot EMPTY = new Snapshot(Map.of());
+
+        private final Map<String, PriceSketch.Frozen> sketches;
+
+        private Snapshot(Map<String, PriceSketch.Frozen> sketches) {
+            this.sketches = sketches;
+        }
+
+        /**
+         * Percentile del prezzo dell'annuncio tra quelli simili (0 = il piu economico, 1 = il piu caro),
+         * oppure NaN se il gruppo non ha abbastanza campioni.
+         */
+        public double pricePercentile(CarListing listing) {
+            return pricePercentile(bucketOf(listing), listing.getPrice());
+        }
+
+        /** Come {@link #pricePercentile(CarListing)}, con il gruppo gia' calcolato. */
+        double pricePercentile(String bucket, int price) {
+            if (price <= 0) return Double.NaN;
+            PriceSketch.Frozen sketch = sketches.get(bucket);
+            return sketch != null ? sketch.cdf(price) : Double.NaN;
+        }
+    }
+
+    /** Forma serializzata di uno sketch. */
+    static class StoredSketch {
+        public double[] means;
+        public double[] weights;
+        public double min;
+        public double max;
+
+        static StoredSketch of(PriceSketch sketch) {
+            StoredSketch stored = new StoredSketch();
+            stored.means = sketch.means();
+            stored.weights = sketch.weights();
+            stored.min = sketch.min();
+            stored.max = sketch.max();
+            return stored;
+        }
+
+        PriceSketch toSketch() {
+            return new PriceSketch(means, weights, min, max);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rilevamento dei quasi-duplicati: stesso annuncio ripubblicato con titolo leggermente diverso
+ * o prezzo ritoccato (es. 9.950 EUR e 10.050 EUR).
+ * Ogni titolo viene ridotto a una firma MinHash sui trigrammi di caratteri; le firme sono divise
+ * in bande e indicizzate con LSH, cosi' ogni annuncio viene confrontato solo con i pochi candidati
+ * che condividono almeno una banda, invece che con tutti gli altri (tempo quasi lineare).
+ * I candidati sono confermati con la similarita' stimata dei titoli e un controllo tollerante
+ * su prezzo, km, anno e zona.
+ */
+public class NearDuplicateDetector {
+
+    private static final int SHINGLE_SIZE = 3;
+    private static final int BANDS = 8;
+    private static final int ROWS_PER_BAND = 4;
+    private static final int SIGNATURE_SIZE = BANDS * ROWS_PER_BAND;
+    private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            seed = mix64(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final double minTitleSimilarity;
+    private final double priceTolerance;
+    private final int kmTolerance;
+    private final double priceBandWidth;
+
+    /**
+     * @param minTitleSimilarity similarita' di Jaccard minima stimata tra i titoli (0-1)
+     * @param priceTolerance     differenza di prezzo relativa ammessa (es. 0.05 = 5%)
+     * @param kmTolerance        differenza di km assoluta ammessa
+     */
+    public NearDuplicateDetector(double minTitleSimilarity, double priceTolerance, int kmTolerance) {
+        this.minTitleSimilarity = minTitleSimilarity;
+        this.priceTolerance = priceTolerance;
+        this.kmTolerance = kmTolerance;
+        // Due prezzi entro la tolleranza distano al piu' una fascia logaritmica
+        this.priceBandWidth = -Math.log(1 - priceTolerance);
+    }
+
+    public NearDuplicateDetector() {
+        this(0.7, 0.05, 5000);
+    }
+
+    /**
+     * Crea un indice vuoto: gli annunci vengono aggiunti uno alla volta, nell'ordine di arrivo.
+     */
+    public Index newIndex() {
+        return new Index();
+    }
+
+    /**
+     * Indice LSH incrementale. Non thread-safe.
+     */
+    public class Index {
+        private final List<CarListing> kept = new ArrayList<>();
+        private final List<long[]> signatures = new ArrayList<>();
+        private final Map<Long, int[]> buckets = new HashMap<>();
+        // Ultima ricerca in cui ogni annuncio e' stato confrontato: un candidato presente in piu'
+        // bande viene verificato una sola volta
+        private int[] lastChecked = new int[64];
+        // Campi numerici in array primitivi: la maggior parte dei candidati si scarta senza
+        // leggere l'oggetto annuncio
+        private int[] prices = new int[64];
+        private int[] kilometers = new int[64];
+        private int lookups;
+
+        private Index() {}
+
+        /**
+         * Aggiunge l'annuncio se non e' un quasi-duplicato di uno gia' presente.
+         *
+         * @return true se l'annuncio e' stato aggiunto, false se e' un duplicato
+         */
+        public boolean addIfUnique(CarListing listing) {
+            long[] signature = signature(listing.getTitle());
+            int year = listing.getYear();
+            long priceBand = priceBand(listing.getPrice());
+            // Senza prezzo serve l'uguaglianza: basta la propria fascia
+            long priceSpread = priceBand < 0 ? 0 : 1;
+            int lookup = ++lookups;
+
+            for (int band = 0; band < BANDS; band++) {
+                for (long price = priceBand - priceSpread; price <= priceBand + priceSpread; price++) {
+                    int[] candidates = buckets.get(bandKey(signature, band, year, price));
+                    if (candidates == null) continue;
+                    for (int i = 1; i <= candidates[0]; i++) {
+                        int candidate = candidates[i];
+                        if (lastChecked[candidate] == lookup) continue;
+                        lastChecked[candidate] = lookup;
+                        if (numbersMatch(listing.getPrice(), prices[candidate], listing.getKilometers(), kilometers[candidate])
+                                && isNearDuplicate(listing, signature, kept.get(candidate), signatures.get(candidate))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            int id = kept.size();
+            kept.add(listing);
+            signatures.add(signature);
+            if (id == lastChecked.length) {
+                lastChecked = Arrays.copyOf(lastChecked, id * 2);
+                prices = Arrays.copyOf(prices, id * 2);
+                kilometers = Arrays.copyOf(kilometers, id * 2);
+            }
+            prices[id] = listing.getPrice();
+            kilometers[id] = listing.getKilometers();
+            for (int band = 0; band < BANDS; band++) {
+                buckets.merge(bandKey(signature, band, year, priceBand), new int[]{1, id}, Index::append);
+            }
+            return true;
+        }
+
+        /** Bucket come array: la cella 0 contiene il numero di elementi. */
+        private static int[] append(int[] bucket, int[] single) {
+            int size = bucket[0];
+            if (size + 1 >= bucket.length) {
+                bucket = Arrays.copyOf(bucket, bucket.length * 2);
+            }
+            bucket[size + 1] = single[1];
+            bucket[0] = size + 1;
+            return bucket;
+        }
+    }
+
+    // ---- Logica interna ----
+
+    private boolean numbersMatch(int priceA, int priceB, int kmA, int kmB) {
+        if (!withinPriceTolerance(priceA, priceB)) return false;
+        return kmA <= 0 || kmB <= 0 || Math.abs(kmA - kmB) <= kmTolerance;
+    }
+
+    private boolean isNearDuplicate(CarListing a, long[] sigA, CarListing b, long[] sigB) {
+        // Prezzo e km gia' verificati da numbersMatch
+        if (a.getYear() != b.getYear()) return false;
+        if (!sameZone(a.getLocation(), b.getLocation())) return false;
+        return estimatedSimilarity(sigA, sigB) >= minTitleSimilarity;
+    }
+
+    /** Fascia logaritmica del prezzo; i prezzi non validi hanno fasce negative proprie. */
+    private long priceBand(int price) {
+        if (price <= 0) return -2L - Math.abs((long) price) * 4;
+        return (long) Math.floor(Math.log(price) / priceBandWidth);
+    }
+
+    private boolean withinPriceTolerance(int a, int b) {
+        if (a <= 0 || b <= 0) return a == b;
+        return Math.abs(a - b) <= priceTolerance * Math.max(a, b);
+    }
+
+    /** Confronta solo la prima parola della zona: "Milano, MI" e "Milano" coincidono. */
+    private static boolean sameZone(String a, String b) {
+        if (a == null || a.isBlank() || b == null || b.isBlank()) return true;
+        int startA = firstWordStart(a);
+        int startB = firstWordStart(b);
+        int lengthA = firstWordEnd(a, startA) - startA;
+        int lengthB = firstWordEnd(b, startB) - startB;
+        return lengthA == lengthB && a.regionMatches(true, startA, b, startB, lengthA);
+    }
+
+    private static int firstWordStart(String text) {
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) start++;
+        return start;
+    }
+
+    private static int firstWordEnd(String text, int start) {
+        int end = start;
+        while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) end++;
+        return end;
+    }
+
+    private static double estimatedSimilarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / SIGNATURE_SIZE;
+    }
+
+    /**
+     * Chiave del bucket LSH per una banda. Include l'anno, che deve comunque coincidere, e la
+     * fascia di prezzo: titoli simili di anni o prezzi lontani non finiscono nello stesso bucket.
+     */
+    private static long bandKey(long[] signature, int band, int year, long priceBand) {
+        long key = mix64(mix64(((long) year << 8) | band) + priceBand);
+        int start = band * ROWS_PER_BAND;
+        for (int i = start; i < start + ROWS_PER_BAND; i++) {
+            key = mix64(key * 31 + signature[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Firma MinHash dei trigrammi del titolo normalizzato (minuscolo, solo lettere e cifre,
+     * spazi compattati). I trigrammi sono calcolati al volo come hash rolling, senza sottostringhe.
+     */
+    static long[] signature(String title) {
+        long[] signature = new long[SIGNATURE_SIZE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+
+        char[] normalized = normalize(title);
+        int length = normalized.length;
+        if (length == 0) return signature;
+
+        int shingles = Math.max(1, length - SHINGLE_SIZE + 1);
+        for (int start = 0; start < shingles; start++) {
+            long shingle = 0;
+            for (int i = start; i < Math.min(length, start + SHINGLE_SIZE); i++) {
+                shingle = shingle * 0x100000001B3L + normalized[i];
+            }
+            for (int h = 0; h < SIGNATURE_SIZE; h++) {
+                long value = mix64(shingle ^ SEEDS[h]);
+                if (value < signature[h]) signature[h] = value;
+            }
+        }
+        return signature;
+    }
+
+    private static char[] normalize(String title) {
+        if (title == null) return new char[0];
+        char[] out = new char[title.length()];
+        int n = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < title.length(); i++) {
+            char c = Character.toLowerCase(title.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                if (pendingSpace && n > 0) out[n++] = ' ';
+                out[n++] = c;
+                pendingSpace = false;
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Finalizzatore di SplitMix64: buona dispersione dei bit a costo minimo. */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,240 @@
+package it.github.usedcars.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * Sketch dei quantili a memoria costante (t-digest con merge a blocchi).
+ * I prezzi arrivano in un buffer; quando e' pieno vengono fusi nei centroidi, piccoli vicino
+ * alle code e grandi al centro della distribuzione. Il numero di centroidi resta nell'ordine
+ * della compressione, qualunque sia il numero di valori.
+ * Due sketch si possono unire con {@link #merge}. Non thread-safe.
+ */
+final class PriceSketch {
+
+    static final double COMPRESSION = 50;
+    private static final int BUFFER_SIZE = 128;
+
+    private double[] means;
+    private double[] weights;
+    private int centroids;
+    private final double[] buffer = new double[BUFFER_SIZE];
+    private int buffered;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    PriceSketch() {
+        this.means = new double[0];
+        this.weights = new double[0];
+    }
+
+    /** Ricostruisce uno sketch salvato con {@link #means()} e {@link #weights()}. */
+    PriceSketch(double[] means, double[] weights, double min, double max) {
+        this.means = means.clone();
+        this.weights = weights.clone();
+        this.centroids = means.length;
+        this.min = min;
+        this.max = max;
+        for (double weight : weights) totalWeight += weight;
+    }
+
+    void add(double value) {
+        buffer[buffered++] = value;
+        totalWeight++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (buffered == BUFFER_SIZE) compress();
+    }
+
+    void merge(PriceSketch other) {
+        other.compress();
+        compress();
+        double[] mergedMeans = Arrays.copyOf(means, centroids + other.centroids);
+        double[] mergedWeights = Arrays.copyOf(weights, centroids + other.centroids);
+        System.arraycopy(other.means, 0, mergedMeans, centroids, other.centroids);
+        System.arraycopy(other.weights, 0, mergedWeights, centroids, other.centroids);
+        totalWeight += other.totalWeight;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        collapse(mergedMeans, mergedWeights, mergedMeans.length);
+    }
+
+    /**
+     * Frazione dei valori inferiori a {@code value} (0-1), interpolando tra i centroidi.
+     */
+    double cdf(double value) {
+        compress();
+        if (centroids == 0) return Double.NaN;
+        if (value < min) return 0.0;
+        if (value >= max) return 1.0;
+        if (centroids == 1) return (value - min) / Math.max(max - min, 1e-9);
+
+        // Prima del primo centroide: interpolazione dal minimo
+        double firstCenter = weights[0] / 2;
+        if (value < means[0]) {
+            return firstCenter * (value - min) / Math.max(means[0] - min, 1e-9) / totalWeight;
+        }
+
+        double cumulative = 0;
+        for (int i = 0; i < centroids - 1; i++) {
+            double center = cumulative + weights[i] / 2;
+            double nextCenter = cumulative + weights[i] + weights[i + 1] / 2;
+            if (value < means[i + 1]) {
+                double fraction = (value - means[i]) / Math.max(means[i + 1] - means[i], 1e-9);
+                return (center + fraction * (nextCenter - center)) / totalWeight;
+            }
+            cumulative += weights[i];
+        }
+
+        // Dopo l'ultimo centroide: interpolazione verso il massimo
+        int last = centroids - 1;
+        double lastCenter = totalWeight - weights[last] / 2;
+        double fraction = (value - means[last]) / Math.max(max - means[last], 1e-9);
+        return (lastCenter + fraction * (totalWeight - lastCenter)) / totalWeight;
+    }
+
+    /**
+     * Copia immutabile della distribuzione attuale, con i centri cumulativi dei centroidi gia'
+     * calcolati: la stessa {@link #cdf} in tempo logaritmico, senza compressione ne' allocazioni.
+     */
+    Frozen freeze() {
+        compress();
+        double[] centers = new double[centroids];
+        double cumulative = 0;
+        for (int i = 0; i < centroids; i++) {
+            centers[i] = cumulative + weights[i] / 2;
+            cumulative += weights[i];
+        }
+        double lastCenter = centroids > 0 ? totalWeight - weights[centroids - 1] / 2 : 0;
+        return new Frozen(Arrays.copyOf(means, centroids), centers, lastCenter, min, max, totalWeight);
+    }
+
+    long count() {
+        return Math.round(totalWeight);
+    }
+
+    double[] means() {
+        compress();
+        return Arrays.copyOf(means, centroids);
+    }
+
+    double[] weights() {
+        compress();
+        return Arrays.copyOf(weights, centroids);
+    }
+
+    double min() { return min; }
+    double max() { return max; }
+
+    // ---- Logica interna ----
+
+    private void compress() {
+        if (buffered == 0) return;
+        double[] allMeans = Arrays.copyOf(means, centroids + buffered);
+        double[] allWeights = Arrays.copyOf(weights, centroids + buffered);
+        for (int i = 0; i < buffered; i++) {
+            allMeans[centroids + i] = buffer[i];
+            allWeights[centroids + i] = 1;
+        }
+        buffered = 0;
+        collapse(allMeans, allWeights, allMeans.length);
+    }
+
+    /**
+     * Ordina i centroidi candidati e fonde quelli adiacenti finche' restano entro un'unita'
+     * della scala k(q) = compressione / 2pi * asin(2q - 1): centroidi piccoli sulle code,
+     * grandi al centro, al massimo circa {@code COMPRESSION} in tutto.
+     */
+    private void collapse(double[] candidateMeans, double[] candidateWeights, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(candidateMeans[a], candidateMeans[b]));
+
+        double[] newMeans = new double[count];
+        double[] newWeights = new double[count];
+        int n = 0;
+        double weightBefore = 0;   // peso dei centroidi gia' chiusi
+
+        for (int index : order) {
+            double mean = candidateMeans[index];
+            double weight = candidateWeights[index];
+            if (n > 0) {
+                double proposed = newWeights[n - 1] + weight;
+                double kLeft = scale(weightBefore / totalWeight);
+                double kRight = scale((weightBefore + proposed) / totalWeight);
+                if (kRight - kLeft <= 1) {
+                    newMeans[n - 1] += (mean - newMeans[n - 1]) * weight / proposed;
+                    newWeights[n - 1] = proposed;
+                    continue;
+                }
+                weightBefore += newWeights[n - 1];
+            }
+            newMeans[n] = mean;
+            newWeights[n] = weight;
+            n++;
+        }
+
+        means = Arrays.copyOf(newMeans, n);
+        weights = Arrays.copyOf(newWeights, n);
+        centroids = n;
+    }
+
+    private static double scale(double q) {
+        return COMPRESSION / (2 * Math.PI) * Math.asin(2 * Math.min(1, Math.max(0, q)) - 1);
+    }
+
+    /** Distribuzione congelata da {@link #freeze()}. Immutabile e thread-safe. */
+    static final class Frozen {
+        private final double[] means;
+        private final double[] centers;
+        private final double lastCenter;
+        private final double min;
+        private final double max;
+        private final double totalWeight;
+
+        private Frozen(double[] means, double[] centers, double lastCenter, double min, double max,
+                       double totalWeight) {
+            this.means = means;
+            this.centers = centers;
+            this.lastCenter = lastCenter;
+            this.min = min;
+            this.max = max;
+            this.totalWeight = totalWeight;
+        }
+
+        /** Come {@link PriceSketch#cdf}: il segmento tra due centroidi si trova per bisezione. */
+        double cdf(double value) {
+            int centroids = means.length;
+            if (centroids == 0) return Double.NaN;
+            if (value < min) return 0.0;
+            if (value >= max) return 1.0;
+            if (centroids == 1) return (value - min) / Math.max(max - min, 1e-9);
+
+            if (value < means[0]) {
+                return centers[0] * (value - min) / Math.max(means[0] - min, 1e-9) / totalWeight;
+            }
+
+            // Primo centroide con media maggiore del valore
+            int low = 1;
+            int high = centroids;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (value < means[mid]) high = mid;
+                else low = mid + 1;
+            }
+            if (low < centroids) {
+                int i = low - 1;
+                double fraction = (value - means[i]) / Math.max(means[low] - means[i], 1e-9);
+                return (centers[i] + fraction * (centers[low] - centers[i])) / totalWeight;
+            }
+
+            int last = centroids - 1;
+            double fraction = (value - means[last]) / Math.max(max - means[last], 1e-9);
+            return (lastCenter + fraction * (totalWeight - lastCenter)) / totalWeight;
+        }
+
+        long count() {
+            return Math.round(totalWeight);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Differenza tra due profili limitata ai campi che influenzano filtro e score.
+ * Gli altri campi (uso, tipo veicolo, zona...) cambiano la ricerca, non la classifica.
+ */
+public final class ProfileDiff {
+
+    private final boolean budgetChanged;
+    private final boolean priorityChanged;
+    private final boolean maxKilometersChanged;
+    private final boolean minYearChanged;
+
+    private ProfileDiff(boolean budgetChanged, boolean priorityChanged,
+                        boolean maxKilometersChanged, boolean minYearChanged) {
+        this.budgetChanged = budgetChanged;
+        this.priorityChanged = priorityChanged;
+        this.maxKilometersChanged = maxKilometersChanged;
+        this.minYearChanged = minYearChanged;
+    }
+
+    public static ProfileDiff between(UserProfile before, UserProfile after) {
+        return new ProfileDiff(
+                before.getMaxBudget() != after.getMaxBudget(),
+                ScoringPlan.Priority.fromLabel(before.getPriority()) != ScoringPlan.Priority.fromLabel(after.getPriority()),
+                before.getMaxKilometers() != after.getMaxKilometers(),
+                before.getMinYear() != after.getMinYear());
+    }
+
+    public boolean isBudgetChanged() { return budgetChanged; }
+    public boolean isPriorityChanged() { return priorityChanged; }
+    public boolean isMaxKilometersChanged() { return maxKilometersChanged; }
+    public boolean isMinYearChanged() { return minYearChanged; }
+
+    public boolean isEmpty() {
+        return !budgetChanged && !priorityChanged && !maxKilometersChanged && !minYearChanged;
+    }
+
+    /** Il filtro dei criteri dipende da budget, km massimi e anno minimo. */
+    boolean affectsFilter() {
+        return budgetChanged || maxKilometersChanged || minYearChanged;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ProfileDiff other)) return false;
+        return budgetChanged == other.budgetChanged && priorityChanged == other.priorityChanged
+                && maxKilometersChanged == other.maxKilometersChanged && minYearChanged == other.minYearChanged;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(budgetChanged, priorityChanged, maxKilometersChanged, minYearChanged);
+    }
+
+    @Override
+    public String toString() {
+        List<String> changed = new ArrayList<>();
+        if (budgetChanged) changed.add("budget");
+        if (priorityChanged) changed.add("priorita");
+        if (maxKilometersChanged) changed.add("km massimi");
+        if (minYearChanged) changed.add("anno minimo");
+        return changed.isEmpty() ? "nessuna modifica" : String.join(", ", changed);
+    }
+}
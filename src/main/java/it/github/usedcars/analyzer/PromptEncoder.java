@@ -0,0 +1,112 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Codifica compatta di profilo e annunci per i prompt di {@link ClaudeAnalyzer}: una riga di profilo
+ * con i soli campi compilati e una tabella con intestazione condivisa e una riga per annuncio,
+ * identificato da un numero breve al posto dell'URL. Meno token in ingresso significa richieste
+ * piu' economiche e primo token piu' rapido.
+ * Include una stima dei token per dimensionare i blocchi entro un budget.
+ */
+final class PromptEncoder {
+
+    static final String TABLE_HEADER = "n|titolo|prezzo EUR|anno|km|alimentazione|cambio|potenza|zona|fonte";
+
+    /** Token di risposta attesi per annuncio (giudizio, pro, contro, red flag, voto). */
+    static final int OUTPUT_TOKENS_PER_LISTING = 150;
+
+    private static final int MAX_TITLE_LENGTH = 80;
+    // Testo italiano misto a numeri: in media circa 3,5 caratteri per token
+    private static final double CHARS_PER_TOKEN = 3.5;
+
+    private PromptEncoder() {}
+
+    /**
+     * Profilo in una riga, es. "budget 15000 EUR; uso citta; km max 100000; priorita spazio".
+     */
+    static String profileLine(UserProfile profile) {
+        StringJoiner line = new StringJoiner("; ");
+        if (profile.getMaxBudget() > 0) line.add("budget " + profile.getMaxBudget() + " EUR");
+        addIfPresent(line, "uso", profile.getMainUsage());
+        addIfPresent(line, "tipo", profile.getVehicleType());
+        addIfPresent(line, "alimentazione", profile.getFuelType());
+        addIfPresent(line, "cambio", profile.getTransmission());
+        if (profile.getMaxKilometers() > 0) line.add("km max " + profile.getMaxKilometers());
+        if (profile.getMinYear() > 0) line.add("anno min " + profile.getMinYear());
+        addIfPresent(line, "marca", profile.getPreferredBrand());
+        addIfPresent(line, "zona", profile.getLocation());
+        addIfPresent(line, "priorita", profile.getPriority());
+        return line.toString();
+    }
+
+    /**
+     * Riga della tabella per un annuncio; i campi mancanti valgono "-".
+     */
+    static String row(int number, CarListing listing) {
+        StringJoiner row = new StringJoiner("|");
+        row.add(String.valueOf(number));
+        row.add(truncate(cell(listing.getTitle()), MAX_TITLE_LENGTH));
+        row.add(listing.getPrice() > 0 ? String.valueOf(listing.getPrice()) : "-");
+        row.add(listing.getYear() > 0 ? String.valueOf(listing.getYear()) : "-");
+        row.add(listing.getKilometers() > 0 ? String.valueOf(listing.getKilometers()) : "-");
+        row.add(cell(listing.getFuelType()));
+        row.add(cell(listing.getTransmission()));
+        row.add(cell(listing.getPower()));
+        row.add(cell(listing.getLocation()));
+        row.add(cell(listing.getSource()));
+        return row.toString();
+    }
+
+    /** Stima approssimata dei token di un testo. */
+    static int estimateTokens(String text) {
+        return (int) Math.ceil(text.length() / CHARS_PER_TOKEN);
+    }
+
+    /**
+     * Divide gli annunci in blocchi consecutivi di al massimo {@code maxPerChunk}, riducendo il blocco
+     * quando i token stimati (prompt fisso, righe e risposta attesa) supererebbero il budget.
+     * Un annuncio da solo oltre il budget forma comunque un blocco.
+     *
+     * @param fixedTokens token stimati della parte del prompt uguale per ogni blocco
+     * @param tokenBudget budget per richiesta, 0 per nessun limite
+     */
+    static List<List<CarListing>> chunk(List<CarListing> listings, int maxPerChunk, int fixedTokens, int tokenBudget) {
+        List<List<CarListing>> chunks = new ArrayList<>();
+        int from = 0;
+        while (from < listings.size()) {
+            int tokens = fixedTokens;
+            int to = from;
+            while (to < listings.size() && to - from < maxPerChunk) {
+                int next = estimateTokens(row(to + 1, listings.get(to))) + 1 + OUTPUT_TOKENS_PER_LISTING;
+                if (tokenBudget > 0 && to > from && tokens + next > tokenBudget) break;
+                tokens += next;
+                to++;
+            }
+            chunks.add(listings.subList(from, to));
+            from = to;
+        }
+        return chunks;
+    }
+
+    // ---- Logica interna ----
+
+    private static void addIfPresent(StringJoiner line, String label, String value) {
+        if (value != null && !value.isBlank()) line.add(label + " " + value.trim());
+    }
+
+    /** Valore di una cella senza separatori o a capo, "-" se assente. */
+    private static String cell(String value) {
+        if (value == null || value.isBlank()) return "-";
+        return value.replace('|', '/').replace('\n', ' ').replace('\r', ' ').trim();
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value.length() <= maxLength ? value : value.substring(0, maxLength);
+    }
+}
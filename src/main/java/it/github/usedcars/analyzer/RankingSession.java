@@ -0,0 +1,205 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classifica riutilizzabile tra un turno di conversazione e l'altro.
+ * Conserva per ogni annuncio (gia' deduplicato) le singole componenti dello score e l'esito
+ * del filtro: quando l'utente ritocca il profilo vengono ricalcolate solo le componenti che
+ * dipendono dai campi cambiati, e i migliori N vengono aggiornati senza rifare l'intera pipeline.
+ * Il primo calcolo delle componenti e' parallelo (fork/join). Non thread-safe.
+ */
+public class RankingSession {
+
+    private static final Logger log = LoggerFactory.getLogger(RankingSession.class);
+
+    /** Sotto questa soglia le componenti vengono calcolate senza suddividere il lavoro. */
+    private static final int PARALLEL_THRESHOLD = 2048;
+
+    private final CarAnalyzer analyzer;
+    private final List<CarListing> listings;
+    private final int limit;
+
+    private final double[] priceScores;
+    private final double[] kmScores;
+    private final double[] yearScores;
+    private final double[] priorityScores;
+    private final double[] completenessScores;
+    private final double[] dealScores;
+    private final boolean[] matches;
+
+    private UserProfile profile;
+    private ScoringPlan plan;
+    private TopKHeap top;
+    private int matchingCount;
+
+    /**
+     * @param listings annunci gia' deduplicati
+     * @param limit    numero di migliori risultati da mantenere
+     */
+    public RankingSession(CarAnalyzer analyzer, List<CarListing> listings, UserProfile profile, int limit) {
+        this.analyzer = analyzer;
+        this.listings = new ArrayList<>(listings);
+        this.limit = limit;
+        this.profile = profile;
+        this.plan = analyzer.planFor(profile);
+
+        int size = this.listings.size();
+        this.priceScores = new double[size];
+        this.kmScores = new double[size];
+        this.yearScores = new double[size];
+        this.priorityScores = new double[size];
+        this.completenessScores = new double[size];
+        this.dealScores = new double[size];
+        this.matches = new boolean[size];
+
+        ForkJoinPool.commonPool().invoke(new ComponentTask(0, size));
+        for (boolean match : matches) {
+            if (match) matchingCount++;
+        }
+        applyTotals();
+        reselect();
+
+        log.info("Filtro criteri: {} -> {} annunci", size, matchingCount);
+        CarAnalyzer.logDiscardedAfterDownload(size, size - matchingCount);
+    }
+
+    /**
+     * Aggiorna la classifica per il nuovo profilo, ricalcolando solo quanto dipende dai campi cambiati.
+     *
+     * @return i campi cambiati rispetto al profilo precedente
+     */
+    public ProfileDiff refine(UserProfile newProfile) {
+        long start = System.nanoTime();
+        ProfileDiff diff = ProfileDiff.between(profile, newProfile);
+        profile = newProfile;
+        if (diff.isEmpty()) return diff;
+
+        plan = analyzer.planFor(newProfile);
+        boolean priceChanged = diff.isBudgetChanged();
+        // "prezzo basso" confronta il prezzo con il budget
+        boolean priorityChanged = diff.isPriorityChanged()
+                || (diff.isBudgetChanged() && plan.getPriority() == ScoringPlan.Priority.PREZZO_BASSO);
+
+        int size = listings.size();
+        for (int i = 0; i < size; i++) {
+            CarListing listing = listings.get(i);
+            if (priceChanged) priceScores[i] = plan.priceScore(listing.getPrice());
+            if (priorityChanged) priorityScores[i] = plan.priorityScore(listing);
+        }
+
+        if (priceChanged || priorityChanged) {
+            if (diff.affectsFilter()) refilter();
+            applyTotals();
+            reselect();
+        } else {
+            patchFilter();
+        }
+
+        log.info("Classifica aggiornata ({}) in {} us", diff, (System.nanoTime() - start) / 1000);
+        return diff;
+    }
+
+    /**
+     * Migliori risultati per il profilo corrente, dal migliore al peggiore.
+     */
+    public List<CarListing> getTopResults() {
+        return top.toSortedList();
+    }
+
+    public UserProfile getProfile() { return profile; }
+    public int getMatchingCount() { return matchingCount; }
+
+    // ---- Logica interna ----
+
+    private void computeComponents(int i) {
+        CarListing listing = listings.get(i);
+        priceScores[i] = plan.priceScore(listing.getPrice());
+        kmScores[i] = plan.kmScore(listing.getKilometers(), listing.getYear());
+        yearScores[i] = plan.yearScore(listing.getYear());
+        priorityScores[i] = plan.priorityScore(listing);
+        completenessScores[i] = plan.completenessScore(ScoringPlan.filledFields(listing));
+        dealScores[i] = plan.dealScore(listing);
+        matches[i] = plan.matches(listing);
+    }
+
+    /**
+     * Calcola le componenti di un intervallo di annunci; gli intervalli grandi vengono divisi a meta'.
+     * Ogni indice scrive solo le proprie celle, quindi i sotto-intervalli non condividono nulla.
+     */
+    private final class ComponentTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        ComponentTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    computeComponents(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ComponentTask(from, middle), new ComponentTask(middle, to));
+        }
+    }
+
+    /**
+     * Solo il filtro e' cambiato (km massimi o anno minimo): gli score restano validi.
+     * Gli annunci che rientrano vengono offerti alla classifica esistente; se ne esce uno
+     * che era tra i migliori, la classifica viene ricostruita dagli score gia' calcolati.
+     */
+    private void patchFilter() {
+        boolean topInvalidated = false;
+        List<CarListing> current = top.toSortedList();
+        for (int i = 0; i < listings.size(); i++) {
+            boolean match = plan.matches(listings.get(i));
+            if (match == matches[i]) continue;
+            matches[i] = match;
+            if (match) {
+                matchingCount++;
+                top.offer(listings.get(i), i);
+            } else {
+                matchingCount--;
+                if (current.contains(listings.get(i))) topInvalidated = true;
+            }
+        }
+        if (topInvalidated) reselect();
+    }
+
+    private void refilter() {
+        matchingCount = 0;
+        for (int i = 0; i < listings.size(); i++) {
+            matches[i] = plan.matches(listings.get(i));
+            if (matches[i]) matchingCount++;
+        }
+    }
+
+    /** Stesso ordine di somma di {@link ScoringPlan#score}: risultato identico al bit. */
+    private void applyTotals() {
+        for (int i = 0; i < listings.size(); i++) {
+            listings.get(i).setScore(priceScores[i] + kmScores[i] + yearScores[i]
+                    + priorityScores[i] + completenessScores[i] + dealScores[i]);
+        }
+    }
+
+    private void reselect() {
+        top = new TopKHeap(limit);
+        for (int i = 0; i < listings.size(); i++) {
+            if (matches[i]) top.offer(listings.get(i), i);
+        }
+    }
+}
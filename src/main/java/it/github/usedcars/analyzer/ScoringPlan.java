@@ -0,0 +1,317 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.SearchCriteria;
+import it.github.usedcars.model.UserProfile;
+
+import java.time.Year;
+import java.util.Optional;
+
+/**
+ * Regole di scoring compilate una volta per profilo: soglie, anno di riferimento, priorita'
+ * gia' risolta in un enum e pesi delle componenti. Immutabile e thread-safe;
+ * {@link #score(CarListing)} non alloca oggetti.
+ *
+ * Componenti (punti massimi dai {@link ScoringWeights}):
+ * - Rapporto prezzo/budget: piu basso = meglio
+ * - Chilometri: meno km = meglio, proporzionato all'eta
+ * - Anno: piu recente = meglio
+ * - Match con priorita utente
+ * - Completezza annuncio: piu informazioni = piu affidabile
+ * - Affare: prezzo basso rispetto ad auto simili sul mercato (percentile da {@link MarketPriceIndex},
+ *   fotografato alla compilazione: i prezzi registrati dopo valgono dal piano successivo)
+ */
+public final class ScoringPlan {
+
+    static final String[] SPACIOUS_WORDS = {"suv", "station", "wagon", "monovolume", "spaziosa"};
+    private static final String[] EFFICIENT_FUELS = {"ibrida", "elettrica", "hybrid"};
+    private static final String[] THRIFTY_FUELS = {"diesel", "gpl", "metano"};
+    private static final String[] PETROL = {"benzina"};
+
+    /** Priorita' dell'utente, con la relativa euristica (punti su base 20). */
+    public enum Priority {
+        PREZZO_BASSO("prezzo basso") {
+            @Override
+            double points(CarListing listing, ScoringPlan plan) {
+                // Gia premiato dal price score, bonus per prezzo molto basso
+                if (listing.getPrice() <= 0 || plan.budget <= 0) return 10.0;
+                double ratio = (double) listing.getPrice() / plan.budget;
+                if (ratio < 0.6) return 20.0;
+                if (ratio < 0.8) return 15.0;
+                return 10.0;
+            }
+
+            @Override
+            double maxPoints(int minPrice, ScoringPlan plan) {
+                if (plan.budget <= 0) return 10.0;
+                double ratio = (double) minPrice / plan.budget;
+                if (ratio < 0.6) return 20.0;
+                if (ratio < 0.8) return 15.0;
+                return 10.0;
+            }
+        },
+        AFFIDABILITA("affidabilita") {
+            @Override
+            double points(CarListing listing, ScoringPlan plan) {
+                // Meno km e anno recente = piu affidabile
+                double score = 10.0;
+                if (listing.getKilometers() > 0 && listing.getKilometers() < 80000) score += 5;
+                if (listing.getYear() > 0 && listing.getYear() >= plan.recentYear) score += 5;
+                return Math.min(score, 20.0);
+            }
+        },
+        CONSUMI_BASSI("consumi bassi") {
+            @Override
+            double points(CarListing listing, ScoringPlan plan) {
+                return fuelPoints(listing.getFuelType());
+            }
+        },
+        SPAZIO("spazio") {
+            @Override
+            double points(CarListing listing, ScoringPlan plan) {
+                // Premiamo SUV, station wagon, monovolume
+                return containsAny(listing.getTitle(), SPACIOUS_WORDS) ? 18.0 : 10.0;
+            }
+
+            @Override
+            double maxPoints(int minPrice, ScoringPlan plan) {
+                return 18.0;
+            }
+        },
+        PRESTAZIONI("prestazioni") {
+            @Override
+            double points(CarListing listing, ScoringPlan plan) {
+                // Se c'e la potenza, premiamo valori alti
+                return powerPoints(parsePower(listing.getPower()));
+            }
+        },
+        NESSUNA("") {
+            @Override
+            double points(CarListing listing, ScoringPlan plan) {
+                return 10.0;
+            }
+
+            @Override
+            double maxPoints(int minPrice, ScoringPlan plan) {
+                return 10.0;
+            }
+        };
+
+        private final String label;
+
+        Priority(String label) {
+            this.label = label;
+        }
+
+        abstract double points(CarListing listing, ScoringPlan plan);
+
+        /** Massimo di {@link #points} per un annuncio che costa almeno minPrice. */
+        double maxPoints(int minPrice, ScoringPlan plan) {
+            return 20.0;
+        }
+
+        public String getLabel() { return label; }
+
+        public static Priority fromLabel(String label) {
+            String normalized = Optional.ofNullable(label).orElse("").trim().toLowerCase();
+            for (Priority priority : values()) {
+                if (priority.label.equals(normalized)) return priority;
+            }
+            return NESSUNA;
+        }
+    }
+
+    private final ScoringWeights weights;
+    private final MarketPriceIndex.Snapshot marketPrices;
+    private final Priority priority;
+    final int budget;
+    final int budgetLimit;
+    final int maxKilometers;
+    final int minYear;
+    final int currentYear;
+    final int recentYear;
+
+    private ScoringPlan(UserProfile profile, ScoringWeights weights, MarketPriceIndex.Snapshot marketPrices,
+                        int currentYear) {
+        this.weights = weights;
+        this.marketPrices = marketPrices;
+        this.priority = Priority.fromLabel(profile.getPriority());
+        this.budget = profile.getMaxBudget();
+        this.budgetLimit = (int) (profile.getMaxBudget() * 1.10);
+        this.maxKilometers = profile.getMaxKilometers();
+        this.minYear = profile.getMinYear();
+        this.currentYear = currentYear;
+        this.recentYear = currentYear - 5;
+    }
+
+    /**
+     * @param marketPrices prezzi di mercato per la componente "affare" (ne usa una snapshot, raccolta
+     *                     con gli stessi filtri di ricerca del profilo), oppure null
+     */
+    public static ScoringPlan compile(UserProfile profile, ScoringWeights weights, MarketPriceIndex marketPrices) {
+        return new ScoringPlan(profile, weights,
+                marketPrices != null && weights.getDeal() != 0
+                        ? marketPrices.snapshot(MarketPriceIndex.contextOf(SearchCriteria.fromProfile(profile)))
+                        : MarketPriceIndex.Snapshot.EMPTY,
+                Year.now().getValue());
+    }
+
+    public ScoringWeights getWeights() { return weights; }
+    public Priority getPriority() { return priority; }
+    public int getCurrentYear() { return currentYear; }
+
+    /**
+     * Tolleranza del 10% sul budget per non escludere offerte al limite.
+     */
+    public boolean matches(CarListing listing) {
+        return matches(listing.getPrice(), listing.getKilometers(), listing.getYear());
+    }
+
+    boolean matches(int price, int kilometers, int year) {
+        return price > 0 && price <= budgetLimit
+                && (maxKilometers <= 0 || kilometers <= 0 || kilometers <= maxKilometers)
+                && (minYear <= 0 || year <= 0 || year >= minYear);
+    }
+
+    public double score(CarListing listing) {
+        return priceScore(listing.getPrice())
+                + kmScore(listing.getKilometers(), listing.getYear())
+                + yearScore(listing.getYear())
+                + priorityScore(listing)
+                + completenessScore(filledFields(listing))
+                + dealScore(listing);
+    }
+
+    /**
+     * Score massimo di un annuncio che costa almeno {@code minPrice} e supera il filtro: prezzo e
+     * priorita' valutati a minPrice (non crescono col prezzo), le altre componenti al massimo.
+     * Meno infinito se a quel prezzo nessun annuncio supera il filtro sul budget.
+     */
+    public double upperBound(int minPrice) {
+        int price = Math.max(minPrice, 1);
+        if (price > budgetLimit) return Double.NEGATIVE_INFINITY;
+        return priceScore(price)
+                + weights.getKilometers()
+                + weights.getYear()
+                + scalePriority(priority.maxPoints(price, this))
+                + weights.getCompleteness()
+                + weights.getDeal();
+    }
+
+    // ---- Componenti, condivise con lo scoring a colonne di CarAnalyzer ----
+
+    /** Prezzo: piu basso rispetto al budget = meglio */
+    double priceScore(int price) {
+        if (price <= 0 || budget <= 0) return weights.getPrice() * 0.5;
+        double ratio = (double) price / budget;
+        if (ratio <= 0.5) return weights.getPrice();
+        if (ratio >= 1.1) return 0.0;
+        // Scala lineare dal massimo (ratio=0.5) a 0 (ratio=1.1)
+        return weights.getPrice() * (1.1 - ratio) / 0.6;
+    }
+
+    /** Km: meno km = meglio, normalizzato rispetto all'eta */
+    double kmScore(int kilometers, int year) {
+        if (kilometers <= 0) return weights.getKilometers() * 0.5;
+        int age = Math.max(1, currentYear - year);
+        // Km medi annui attesi: ~15.000 km/anno
+        double ratio = kilometers / (age * 15000.0);
+        if (ratio <= 0.5) return weights.getKilometers();
+        if (ratio >= 2.0) return 0.0;
+        return weights.getKilometers() * (2.0 - ratio) / 1.5;
+    }
+
+    /** Anno: piu recente = meglio */
+    double yearScore(int year) {
+        if (year <= 0) return weights.getYear() * 0.5;
+        int age = currentYear - year;
+        if (age <= 1) return weights.getYear();
+        if (age >= 15) return 0.0;
+        return weights.getYear() * (15 - age) / 14.0;
+    }
+
+    double priorityScore(CarListing listing) {
+        return scalePriority(priority.points(listing, this));
+    }
+
+    /** Converte i punti dell'euristica (base 20) nel peso configurato. */
+    double scalePriority(double points) {
+        return weights.getPriority() * points / 20.0;
+    }
+
+    /** Completezza: campi compilati su 9 */
+    double completenessScore(int filledFields) {
+        return (filledFields / 9.0) * weights.getCompleteness();
+    }
+
+    /** Affare: meglio se costa meno della maggior parte delle auto simili; neutro senza dati */
+    double dealScore(CarListing listing) {
+        // Con peso 0 (il default) non serve nemmeno calcolare la categoria dell'annuncio
+        if (weights.getDeal() == 0) return 0.0;
+        return dealScore(MarketPriceIndex.bucketOf(listing), listing.getPrice());
+    }
+
+    double dealScore(String marketBucket, int price) {
+        if (weights.getDeal() == 0) return 0.0;
+        double percentile = marketPrices.pricePercentile(marketBucket, price);
+        if (Double.isNaN(percentile)) return weights.getDeal() * 0.5;
+        return weights.getDeal() * (1 - percentile);
+    }
+
+    static int filledFields(CarListing listing) {
+        int fields = 0;
+        if (listing.getTitle() != null && !listing.getTitle().isBlank()) fields++;
+        if (listing.getPrice() > 0) fields++;
+        if (listing.getYear() > 0) fields++;
+        if (listing.getKilometers() > 0) fields++;
+        if (listing.getFuelType() != null && !listing.getFuelType().isBlank()) fields++;
+        if (listing.getTransmission() != null && !listing.getTransmission().isBlank()) fields++;
+        if (listing.getPower() != null && !listing.getPower().isBlank()) fields++;
+        if (listing.getLocation() != null && !listing.getLocation().isBlank()) fields++;
+        if (listing.getImageUrl() != null && !listing.getImageUrl().isBlank()) fields++;
+        return fields;
+    }
+
+    static double fuelPoints(String fuel) {
+        if (containsAny(fuel, EFFICIENT_FUELS)) return 20.0;
+        if (containsAny(fuel, THRIFTY_FUELS)) return 15.0;
+        if (containsAny(fuel, PETROL)) return 8.0;
+        return 10.0;
+    }
+
+    static double powerPoints(int cv) {
+        if (cv >= 200) return 20.0;
+        if (cv >= 150) return 16.0;
+        if (cv >= 100) return 12.0;
+        return 10.0;
+    }
+
+    /**
+     * Potenza in CV dalle sole cifre del testo ("150 CV" -> 150), -1 se assenti o fuori range.
+     */
+    static int parsePower(String power) {
+        if (power == null) return -1;
+        long value = 0;
+        boolean digits = false;
+        for (int i = 0; i < power.length(); i++) {
+            char c = power.charAt(i);
+            if (c < '0' || c > '9') continue;
+            value = value * 10 + (c - '0');
+            digits = true;
+            if (value > Integer.MAX_VALUE) return -1;
+        }
+        return digits ? (int) value : -1;
+    }
+
+    /** Ricerca case-insensitive senza creare stringhe intermedie. */
+    static boolean containsAny(String text, String[] lowerCaseNeedles) {
+        if (text == null) return false;
+        for (String needle : lowerCaseNeedles) {
+            int last = text.length() - needle.length();
+            for (int i = 0; i <= last; i++) {
+                if (text.regionMatches(true, i, needle, 0, needle.length())) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package it.github.usedcars.analyzer;
+
+/**
+ * Punti massimi assegnati a ciascuna componente dello score.
+ * Con i pesi predefiniti (25/20/20/20/15, affare 0) lo score va da 0 a 100.
+ */
+public final class ScoringWeights {
+
+    public static final ScoringWeights DEFAULT = new ScoringWeights(25, 20, 20, 20, 15, 0);
+
+    private final double price;
+    private final double kilometers;
+    private final double year;
+    private final double priority;
+    private final double completeness;
+    private final double deal;
+
+    /**
+     * @param deal peso del confronto con i prezzi di mercato di auto simili ({@link MarketPriceIndex})
+     */
+    public ScoringWeights(double price, double kilometers, double year, double priority,
+                          double completeness, double deal) {
+        this.price = price;
+        this.kilometers = kilometers;
+        this.year = year;
+        this.priority = priority;
+        this.completeness = completeness;
+        this.deal = deal;
+    }
+
+    public double getPrice() { return price; }
+    public double getKilometers() { return kilometers; }
+    public double getYear() { return year; }
+    public double getPriority() { return priority; }
+    public double getCompleteness() { return completeness; }
+    public double getDeal() { return deal; }
+
+    public double getTotal() { return price + kilometers + year + priority + completeness + deal; }
+
+    @Override
+    public String toString() {
+        return String.format("prezzo=%.1f, km=%.1f, anno=%.1f, priorita=%.1f, completezza=%.1f, affare=%.1f",
+                price, kilometers, year, priority, completeness, deal);
+    }
+}
@@ -0,0 +1,104 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Min-heap limitato ai K annunci migliori per score.
+ * A parita' di score vince l'annuncio arrivato prima (indice piu basso), come nell'ordinamento
+ * stabile usato da {@link CarAnalyzer#scoreAndRank}: il risultato e' identico al sort completo.
+ * Non thread-safe.
+ */
+final class TopKHeap {
+
+    private final int capacity;
+    private final CarListing[] listings;
+    private final int[] indexes;
+    private int size;
+
+    TopKHeap(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.listings = new CarListing[this.capacity];
+        this.indexes = new int[this.capacity];
+    }
+
+    /**
+     * Offre un annuncio gia' valutato; {@code index} e' la sua posizione nella lista originale.
+     */
+    void offer(CarListing listing, int index) {
+        if (capacity == 0) return;
+        if (size < capacity) {
+            listings[size] = listing;
+            indexes[size] = index;
+            siftUp(size++);
+        } else if (worse(listings[0], indexes[0], listing, index)) {
+            listings[0] = listing;
+            indexes[0] = index;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Score che un nuovo annuncio deve superare per entrare: quello del K-esimo,
+     * meno infinito finche' il heap non e' pieno.
+     */
+    double threshold() {
+        return size < capacity || capacity == 0 ? Double.NEGATIVE_INFINITY : listings[0].getScore();
+    }
+
+    /**
+     * Restituisce il contenuto dal migliore al peggiore.
+     */
+    List<CarListing> toSortedList() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> worse(listings[a], indexes[a], listings[b], indexes[b]) ? 1
+                : worse(listings[b], indexes[b], listings[a], indexes[a]) ? -1 : 0);
+
+        List<CarListing> result = new ArrayList<>(size);
+        for (Integer i : order) result.add(listings[i]);
+        return result;
+    }
+
+    // ---- Logica interna ----
+
+    /** true se (a, ia) viene dopo (b, ib) in classifica. */
+    private static boolean worse(CarListing a, int ia, CarListing b, int ib) {
+        int byScore = Double.compare(a.getScore(), b.getScore());
+        return byScore < 0 || (byScore == 0 && ia > ib);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(listings[i], indexes[i], listings[parent], indexes[parent])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) return;
+            int right = left + 1;
+            int worst = right < size && worse(listings[right], indexes[right], listings[left], indexes[left])
+                    ? right : left;
+            if (!worse(listings[worst], indexes[worst], listings[i], indexes[i])) return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        CarListing listing = listings[a];
+        listings[a] = listings[b];
+        listings[b] = listing;
+        int index = indexes[a];
+        indexes[a] = indexes[b];
+        indexes[b] = index;
+    }
+}
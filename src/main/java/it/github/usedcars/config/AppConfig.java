@@ -10,12 +10,71 @@ public class AppConfig {
 
     private final String anthropicApiKey;
     private final int maxResultsPerSource;
-    private final int scraperDelayMs;
+    private final double scraperRequestsPerSecond;
+    private final int scraperBurst;
+    private final boolean scraperPriceOrder;
+    private final int sourceTimeoutMs;
+    private final int searchTimeoutMs;
+    private final int httpTimeoutMs;
+    private final int httpMaxRetries;
+    private final int httpRetryBaseMs;
+    private final int circuitFailureThreshold;
+    private final int circuitOpenSeconds;
+    private final boolean pageCacheEnabled;
+    private final String pageCacheDir;
+    private final int pageCacheTtlMinutes;
+    private final int pageCacheMaxMb;
+    private final boolean pageCacheOffline;
+    private final String seenListingsFile;
+    private final double[] scoreWeights;
+    private final String marketPricesFile;
+    private final int analysisChunkSize;
+    private final int analysisMaxAttempts;
+    private final boolean analysisStreaming;
+    private final String analysisCacheFile;
+    private final int analysisCacheTtlHours;
+    private final int analysisCacheMaxEntries;
+    private final int analysisTokenBudget;
+    private final boolean analysisJsonOutput;
 
-    private AppConfig(String anthropicApiKey, int maxResultsPerSource, int scraperDelayMs) {
+    private AppConfig(String anthropicApiKey, int maxResultsPerSource,
+                      double scraperRequestsPerSecond, int scraperBurst, boolean scraperPriceOrder,
+                      int sourceTimeoutMs, int searchTimeoutMs, int httpTimeoutMs,
+                      int httpMaxRetries, int httpRetryBaseMs, int circuitFailureThreshold, int circuitOpenSeconds,
+                      boolean pageCacheEnabled, String pageCacheDir, int pageCacheTtlMinutes,
+                      int pageCacheMaxMb, boolean pageCacheOffline, String seenListingsFile,
+                      double[] scoreWeights, String marketPricesFile,
+                      int analysisChunkSize, int analysisMaxAttempts, boolean analysisStreaming,
+                      String analysisCacheFile, int analysisCacheTtlHours, int analysisCacheMaxEntries,
+                      int analysisTokenBudget, boolean analysisJsonOutput) {
         this.anthropicApiKey = anthropicApiKey;
         this.maxResultsPerSource = maxResultsPerSource;
-        this.scraperDelayMs = scraperDelayMs;
+        this.scraperRequestsPerSecond = scraperRequestsPerSecond;
+        this.scraperBurst = scraperBurst;
+        this.scraperPriceOrder = scraperPriceOrder;
+        this.sourceTimeoutMs = sourceTimeoutMs;
+        this.searchTimeoutMs = searchTimeoutMs;
+        this.httpTimeoutMs = httpTimeoutMs;
+        this.httpMaxRetries = httpMaxRetries;
+        this.httpRetryBaseMs = httpRetryBaseMs;
+        this.circuitFailureThreshold = circuitFailureThreshold;
+        this.circuitOpenSeconds = circuitOpenSeconds;
+        this.pageCacheEnabled = pageCacheEnabled;
+        this.pageCacheDir = pageCacheDir;
+        this.pageCacheTtlMinutes = pageCacheTtlMinutes;
+        this.pageCacheMaxMb = pageCacheMaxMb;
+        this.pageCacheOffline = pageCacheOffline;
+        this.seenListingsFile = seenListingsFile;
+        this.scoreWeights = scoreWeights;
+        this.marketPricesFile = marketPricesFile;
+        this.analysisChunkSize = analysisChunkSize;
+        this.analysisMaxAttempts = analysisMaxAttempts;
+        this.analysisStreaming = analysisStreaming;
+        this.analysisCacheFile = analysisCacheFile;
+        this.analysisCacheTtlHours = analysisCacheTtlHours;
+        this.analysisCacheMaxEntries = analysisCacheMaxEntries;
+        this.analysisTokenBudget = analysisTokenBudget;
+        this.analysisJsonOutput = analysisJsonOutput;
     }
 
     public static AppConfig load() {
@@ -31,10 +90,70 @@ public class AppConfig {
         }
 
         int maxResults = parseIntOrDefault(dotenv.get("MAX_RESULTS_PER_SOURCE"), 30);
-        int delay = parseIntOrDefault(dotenv.get("SCRAPER_DELAY_MS"), 2000);
+        if (dotenv.get("SCRAPER_DELAY_MS") != null) {
+            log.warn("SCRAPER_DELAY_MS non e' piu' usato: il ritmo delle richieste si regola con "
+                    + "SCRAPER_REQUESTS_PER_SECOND e SCRAPER_BURST");
+        }
+        double requestsPerSecond = parseDoubleOrDefault(dotenv.get("SCRAPER_REQUESTS_PER_SECOND"), 1.0);
+        int burst = parseIntOrDefault(dotenv.get("SCRAPER_BURST"), 2);
+        boolean priceOrder = parseBooleanOrDefault(dotenv.get("SCRAPER_PRICE_ORDER"), false);
+        int sourceTimeout = parseIntOrDefault(dotenv.get("SOURCE_TIMEOUT_MS"), 45000);
+        int searchTimeout = parseIntOrDefault(dotenv.get("SEARCH_TIMEOUT_MS"), 60000);
+        int httpTimeout = parseIntOrDefault(dotenv.get("HTTP_TIMEOUT_MS"), 15000);
+        int httpRetries = parseIntOrDefault(dotenv.get("HTTP_MAX_RETRIES"), 2);
+        int httpRetryBase = parseIntOrDefault(dotenv.get("HTTP_RETRY_BASE_MS"), 1000);
+        int circuitThreshold = parseIntOrDefault(dotenv.get("CIRCUIT_FAILURE_THRESHOLD"), 3);
+        int circuitOpen = parseIntOrDefault(dotenv.get("CIRCUIT_OPEN_SECONDS"), 120);
+
+        log.info("Configurazione caricata: maxResults={}, rate={} req/s (burst {})",
+                maxResults, requestsPerSecond, burst);
+        boolean cacheEnabled = parseBooleanOrDefault(dotenv.get("PAGE_CACHE_ENABLED"), true);
+        String cacheDir = dotenv.get("PAGE_CACHE_DIR");
+        if (cacheDir == null || cacheDir.isBlank()) {
+            cacheDir = System.getProperty("user.home") + "/.autofinder/cache/pages";
+        }
+        int cacheTtl = parseIntOrDefault(dotenv.get("PAGE_CACHE_TTL_MINUTES"), 30);
+        int cacheMaxMb = parseIntOrDefault(dotenv.get("PAGE_CACHE_MAX_MB"), 100);
+        boolean cacheOffline = parseBooleanOrDefault(dotenv.get("PAGE_CACHE_OFFLINE"), false);
+        String seenFile = dotenv.get("SEEN_LISTINGS_FILE");
+        if (seenFile == null || seenFile.isBlank()) {
+            seenFile = System.getProperty("user.home") + "/.autofinder/seen-listings.json";
+        }
 
-        log.info("Configurazione caricata: maxResults={}, delay={}ms", maxResults, delay);
-        return new AppConfig(apiKey, maxResults, delay);
+        double[] weights = {
+                parseWeightOrDefault(dotenv.get("SCORE_WEIGHT_PRICE"), 25),
+                parseWeightOrDefault(dotenv.get("SCORE_WEIGHT_KM"), 20),
+                parseWeightOrDefault(dotenv.get("SCORE_WEIGHT_YEAR"), 20),
+                parseWeightOrDefault(dotenv.get("SCORE_WEIGHT_PRIORITY"), 20),
+                parseWeightOrDefault(dotenv.get("SCORE_WEIGHT_COMPLETENESS"), 15),
+                parseWeightOrDefault(dotenv.get("SCORE_WEIGHT_DEAL"), 0)
+        };
+        String marketFile = dotenv.get("MARKET_PRICES_FILE");
+        if (marketFile == null || marketFile.isBlank()) {
+            marketFile = System.getProperty("user.home") + "/.autofinder/market-prices.json";
+        }
+
+        int chunkSize = parseIntOrDefault(dotenv.get("ANALYSIS_CHUNK_SIZE"), 3);
+        int analysisAttempts = parseIntOrDefault(dotenv.get("ANALYSIS_MAX_ATTEMPTS"), 2);
+        boolean analysisStreaming = parseBooleanOrDefault(dotenv.get("ANALYSIS_STREAMING"), true);
+        String analysisCacheFile = dotenv.get("ANALYSIS_CACHE_FILE");
+        if (analysisCacheFile == null || analysisCacheFile.isBlank()) {
+            analysisCacheFile = System.getProperty("user.home") + "/.autofinder/analysis-cache.json";
+        }
+        int analysisCacheTtl = parseIntOrDefault(dotenv.get("ANALYSIS_CACHE_TTL_HOURS"), 72);
+        int analysisCacheEntries = parseIntOrDefault(dotenv.get("ANALYSIS_CACHE_MAX_ENTRIES"), 1000);
+        int analysisTokenBudget = parseIntOrDefault(dotenv.get("ANALYSIS_TOKEN_BUDGET"), 1500);
+        boolean analysisJsonOutput = parseBooleanOrDefault(dotenv.get("ANALYSIS_JSON_OUTPUT"), true);
+
+        log.info("Timeout ricerca: {}ms per fonte, {}ms globale, {}ms per richiesta",
+                sourceTimeout, searchTimeout, httpTimeout);
+        log.info("Cache pagine: {} (ttl={}min, max={}MB, offline={})",
+                cacheEnabled ? cacheDir : "disattivata", cacheTtl, cacheMaxMb, cacheOffline);
+        return new AppConfig(apiKey, maxResults, requestsPerSecond, burst, priceOrder, sourceTimeout, searchTimeout,
+                httpTimeout, httpRetries, httpRetryBase, circuitThreshold, circuitOpen, cacheEnabled, cacheDir, cacheTtl, cacheMaxMb, cacheOffline, seenFile,
+                weights, marketFile, chunkSize, analysisAttempts, analysisStreaming,
+                analysisCacheFile, analysisCacheTtl, analysisCacheEntries, analysisTokenBudget,
+                analysisJsonOutput);
     }
 
     private static int parseIntOrDefault(String value, int defaultValue) {
@@ -46,7 +165,66 @@ public class AppConfig {
         }
     }
 
+    private static double parseDoubleOrDefault(String value, double defaultValue) {
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            double parsed = Double.parseDouble(value);
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /** Come {@link #parseDoubleOrDefault}, ma accetta 0 per disattivare una componente. */
+    private static double parseWeightOrDefault(String value, double defaultValue) {
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            double parsed = Double.parseDouble(value);
+            return parsed >= 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static boolean parseBooleanOrDefault(String value, boolean defaultValue) {
+        if (value == null || value.isBlank()) return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
     public String getAnthropicApiKey() { return anthropicApiKey; }
     public int getMaxResultsPerSource() { return maxResultsPerSource; }
-    public int getScraperDelayMs() { return scraperDelayMs; }
+    public double getScraperRequestsPerSecond() { return scraperRequestsPerSecond; }
+    public int getScraperBurst() { return scraperBurst; }
+    /** Ricerca per prezzo crescente con arresto anticipato, al posto dell'ordinamento del sito. */
+    public boolean isScraperPriceOrder() { return scraperPriceOrder; }
+    public int getSourceTimeoutMs() { return sourceTimeoutMs; }
+    public int getSearchTimeoutMs() { return searchTimeoutMs; }
+    public int getHttpTimeoutMs() { return httpTimeoutMs; }
+    public int getHttpMaxRetries() { return httpMaxRetries; }
+    /** Base del backoff esponenziale tra i tentativi HTTP. */
+    public int getHttpRetryBaseMs() { return httpRetryBaseMs; }
+    public int getCircuitFailureThreshold() { return circuitFailureThreshold; }
+    public int getCircuitOpenSeconds() { return circuitOpenSeconds; }
+    public boolean isPageCacheEnabled() { return pageCacheEnabled; }
+    public String getPageCacheDir() { return pageCacheDir; }
+    public int getPageCacheTtlMinutes() { return pageCacheTtlMinutes; }
+    public int getPageCacheMaxMb() { return pageCacheMaxMb; }
+    public boolean isPageCacheOffline() { return pageCacheOffline; }
+    public String getSeenListingsFile() { return seenListingsFile; }
+    /** Pesi dello score: prezzo, km, anno, priorita, completezza, affare. */
+    public double[] getScoreWeights() { return scoreWeights.clone(); }
+    public String getMarketPricesFile() { return marketPricesFile; }
+    /** Annunci per richiesta di analisi a Claude; i blocchi partono in parallelo. */
+    public int getAnalysisChunkSize() { return analysisChunkSize; }
+    public int getAnalysisMaxAttempts() { return analysisMaxAttempts; }
+    /** Se true le analisi arrivano in streaming e vengono mostrate man mano. */
+    public boolean isAnalysisStreaming() { return analysisStreaming; }
+    public String getAnalysisCacheFile() { return analysisCacheFile; }
+    public int getAnalysisCacheTtlHours() { return analysisCacheTtlHours; }
+    /** Analisi conservate in cache, 0 per disattivarla. */
+    public int getAnalysisCacheMaxEntries() { return analysisCacheMaxEntries; }
+    /** Token stimati per richiesta di analisi (prompt piu' risposta attesa), 0 per nessun limite. */
+    public int getAnalysisTokenBudget() { return analysisTokenBudget; }
+    /** Risposte di analisi in JSON validato invece del formato a sezioni. */
+    public boolean isAnalysisJsonOutput() { return analysisJsonOutput; }
 }
\ No newline at end of file
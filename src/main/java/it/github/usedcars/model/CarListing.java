@@ -13,6 +13,7 @@ public class CarListing {
     private String url;
     private String source;         // AutoScout24, Subito.it, Automobile.it
     private String imageUrl;
+    private long publishedAt;      // data di pubblicazione in millisecondi epoch, 0 se non nota
     private double score;          // calcolato da CarAnalyzer
 
     public CarListing() {}
@@ -71,6 +72,9 @@ public class CarListing {
     public String getImageUrl() { return imageUrl; }
     public void setImageUrl(String imageUrl) { this.imageUrl = imageUrl; }
 
+    public long getPublishedAt() { return publishedAt; }
+    public void setPublishedAt(long publishedAt) { this.publishedAt = publishedAt; }
+
     public double getScore() { return score; }
     public void setScore(double score) { this.score = score; }
 }
\ No newline at end of file
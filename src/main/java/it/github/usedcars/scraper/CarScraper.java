@@ -4,6 +4,7 @@ import it.github.usedcars.model.CarListing;
 import it.github.usedcars.model.SearchCriteria;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface CarScraper {
 
@@ -11,5 +12,32 @@ public interface CarScraper {
 
     List<CarListing> search(SearchCriteria criteria) throws ScraperException;
 
+    /**
+     * Variante in streaming della ricerca: consegna gli annunci a blocchi appena disponibili,
+     * cosi' l'analisi puo' partire mentre le pagine successive sono ancora in download.
+     * L'implementazione di default consegna l'intero risultato come unico blocco.
+     */
+    default void search(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer) throws ScraperException {
+        batchConsumer.accept(search(criteria));
+    }
+
+    /**
+     * Variante in streaming con arresto anticipato: chi supporta l'ordinamento per prezzo crescente,
+     * se attivato, smette di scaricare pagine quando il cutoff indica che gli annunci rimanenti non
+     * possono entrare tra i migliori. L'implementazione di default ignora il cutoff.
+     */
+    default void search(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer,
+                        PriceCutoff cutoff) throws ScraperException {
+        search(criteria, batchConsumer);
+    }
+
+    /**
+     * Ricerca incrementale: consegna solo gli annunci non ancora visti per gli stessi criteri.
+     * L'implementazione di default non tiene memoria delle ricerche e consegna tutti i risultati.
+     */
+    default void searchNew(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer) throws ScraperException {
+        search(criteria, batchConsumer);
+    }
+
     String buildSearchUrl(SearchCriteria criteria);
 }
@@ -0,0 +1,71 @@
+package it.github.usedcars.scraper;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker per una singola fonte.
+ * Dopo un certo numero di fallimenti consecutivi (errori o timeout) il circuito si apre e le
+ * chiamate falliscono subito, senza attendere una fonte che sappiamo gia' in difficolta'.
+ * Trascorso il periodo di apertura viene lasciata passare una sola chiamata di prova:
+ * se riesce il circuito si richiude, altrimenti resta aperto per un altro periodo.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Indica se una nuova chiamata puo' partire. Nello stato HALF_OPEN ne passa una sola.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt >= openNanos) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            case HALF_OPEN:
+            default:
+                // La chiamata di prova e' gia' in corso
+                return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Millisecondi che mancano alla prossima chiamata di prova, 0 se il circuito non e' aperto.
+     */
+    public synchronized long remainingOpenMs() {
+        if (state != State.OPEN) return 0;
+        return Math.max(0, Duration.ofNanos(openNanos - (System.nanoTime() - openedAt)).toMillis());
+    }
+
+    public synchronized State getState() { return state; }
+    public synchronized int getConsecutiveFailures() { return consecutiveFailures; }
+}
@@ -0,0 +1,93 @@
+package it.github.usedcars.scraper;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rate limiter token-bucket per host.
+ * Ogni host ha il proprio bucket: le richieste verso lo stesso sito condividono il budget,
+ * mentre siti diversi non si rallentano a vicenda.
+ */
+public class HostRateLimiter {
+
+    private final double requestsPerSecond;
+    private final int burst;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param requestsPerSecond richieste al secondo consentite per host (ritmo di ricarica del bucket)
+     * @param burst             numero massimo di richieste consecutive senza attesa
+     */
+    public HostRateLimiter(double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("requestsPerSecond deve essere positivo: " + requestsPerSecond);
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Blocca finche' non e' disponibile un token per l'host dell'URL.
+     * Pensato per essere chiamato da virtual thread: l'attesa non occupa un carrier thread.
+     */
+    public void acquire(String url) throws InterruptedException {
+        bucketFor(url).acquire();
+    }
+
+    public double getRequestsPerSecond() { return requestsPerSecond; }
+    public int getBurst() { return burst; }
+
+    private TokenBucket bucketFor(String url) {
+        String host = hostOf(url);
+        return buckets.computeIfAbsent(host, h -> new TokenBucket(requestsPerSecond, burst));
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : url;
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    private static final class TokenBucket {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final double nanosPerToken;
+        private final int capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double requestsPerSecond, int capacity) {
+            this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        void acquire() throws InterruptedException {
+            // Lock fair: i chiamanti ottengono i token nell'ordine in cui li chiedono
+            lock.lockInterruptibly();
+            try {
+                refill();
+                if (tokens < 1.0) {
+                    long waitNanos = (long) Math.ceil((1.0 - tokens) * nanosPerToken);
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    refill();
+                }
+                tokens -= 1.0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
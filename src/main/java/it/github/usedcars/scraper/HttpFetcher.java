@@ -0,0 +1,203 @@
+package it.github.usedcars.scraper;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Motore di download condiviso da tutti gli scraper.
+ * Usa un unico {@link HttpClient} con connessioni keep-alive riutilizzate e HTTP/2 quando il
+ * server lo supporta, cosi' le pagine successive non ripagano l'handshake TLS.
+ * Ogni richiesta passa prima dalla {@link PageCache}; solo quelle che vanno davvero in rete
+ * consumano un token del {@link HostRateLimiter}. Jsoup viene usato solo per il parsing.
+ */
+public class HttpFetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpFetcher.class);
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final HostRateLimiter rateLimiter;
+    private final PageCache pageCache;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final int backoffBaseMs;
+
+    /**
+     * @param maxRetries    tentativi aggiuntivi per errori di rete, 429 e 5xx
+     * @param backoffBaseMs base del backoff esponenziale tra un tentativo e l'altro
+     */
+    public HttpFetcher(HostRateLimiter rateLimiter, PageCache pageCache, Duration requestTimeout,
+                       int maxRetries, int backoffBaseMs) {
+        this.rateLimiter = rateLimiter;
+        this.pageCache = pageCache;
+        this.requestTimeout = requestTimeout;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffBaseMs = Math.max(1, backoffBaseMs);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Scarica la pagina e ne restituisce il body decodificato.
+     */
+    public String fetch(String url) throws IOException {
+        return pageCache.fetch(url, this::downloadWithRetry);
+    }
+
+    /**
+     * Come {@link #fetch(String)}, ma la pagina finisce in cache solo se {@code cacheable} accetta il body.
+     */
+    public String fetch(String url, Predicate<String> cacheable) throws IOException {
+        return pageCache.fetch(url, this::downloadWithRetry, cacheable);
+    }
+
+    /**
+     * Come {@link #fetch(String, Predicate)}, ma non si fida di una copia in cache ancora fresca:
+     * la rivalida sempre con il server.
+     */
+    public String fetchFresh(String url, Predicate<String> cacheable) throws IOException {
+        return pageCache.revalidate(url, this::downloadWithRetry, cacheable);
+    }
+
+    /**
+     * Variante asincrona di {@link #fetch(String)}, eseguita su virtual thread.
+     * Il future fallisce con {@link UncheckedIOException} in caso di errore di rete.
+     */
+    public CompletableFuture<String> fetchAsync(String url) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetch(url);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Scarica la pagina e la passa al parser HTML di Jsoup.
+     */
+    public Document fetchDocument(String url) throws IOException {
+        return Jsoup.parse(fetch(url), url);
+    }
+
+    private PageCache.Response downloadWithRetry(String url, String etag, String lastModified) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                PageCache.Response response = download(url, etag, lastModified);
+                if (!isRetryable(response.getStatusCode()) || attempt >= maxRetries) {
+                    return response;
+                }
+                log.warn("HTTP {} da {}, nuovo tentativo ({}/{})", response.getStatusCode(), url, attempt + 1, maxRetries);
+            } catch (InterruptedIOException | HttpTimeoutException e) {
+                // Interruzioni e timeout non si ritentano: la fonte e' gia' lenta, meglio fallire presto
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxRetries) throw e;
+                log.warn("Errore di rete su {}: {}, nuovo tentativo ({}/{})", url, e.getMessage(), attempt + 1, maxRetries);
+            }
+
+            try {
+                ScraperUtils.backoff(attempt, backoffBaseMs, (int) requestTimeout.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrotto: " + url);
+            }
+        }
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    private PageCache.Response download(String url, String etag, String lastModified) throws IOException {
+        try {
+            rateLimiter.acquire(url);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrotto: " + url);
+        }
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("User-Agent", ScraperUtils.randomUserAgent())
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                .header("Accept-Language", "it-IT,it;q=0.9,en-US;q=0.8,en;q=0.7")
+                .header("Accept-Encoding", "gzip, deflate")
+                .GET();
+        if (etag != null) request.header("If-None-Match", etag);
+        if (lastModified != null) request.header("If-Modified-Since", lastModified);
+
+        log.debug("Fetching URL: {}", url);
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrotto: " + url);
+        }
+
+        HttpHeaders headers = response.headers();
+        String body = "";
+        try (InputStream raw = response.body()) {
+            if (response.statusCode() != 304) {
+                try (InputStream in = decode(raw, headers.firstValue("Content-Encoding").orElse(""))) {
+                    body = new String(in.readAllBytes(), charsetOf(headers));
+                }
+            }
+        }
+        log.debug("{} {} via {}", response.statusCode(), url, response.version());
+
+        return new PageCache.Response(response.statusCode(), body,
+                headers.firstValue("ETag").orElse(null),
+                headers.firstValue("Last-Modified").orElse(null));
+    }
+
+    private static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        return switch (contentEncoding.trim().toLowerCase()) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(body);
+            case "deflate" -> new InflaterInputStream(body);
+            default -> body;
+        };
+    }
+
+    private static Charset charsetOf(HttpHeaders headers) {
+        String contentType = headers.firstValue("Content-Type").orElse("");
+        int idx = contentType.toLowerCase().indexOf("charset=");
+        if (idx >= 0) {
+            String name = contentType.substring(idx + 8).split(";")[0].trim().replace("\"", "");
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                log.debug("Charset sconosciuto '{}', uso UTF-8", name);
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
@@ -0,0 +1,69 @@
+package it.github.usedcars.scraper;
+
+import java.util.Arrays;
+
+/**
+ * Istogramma delle latenze sulle ultime N chiamate (finestra mobile).
+ * Le latenze sono raggruppate in bucket a scala logaritmica per la visualizzazione;
+ * i percentili sono calcolati sui campioni della finestra.
+ */
+public class LatencyHistogram {
+
+    private static final long[] BUCKET_BOUNDS_MS = {100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyHistogram(int windowSize) {
+        this.samples = new long[Math.max(1, windowSize)];
+    }
+
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Percentile (0-100) delle latenze nella finestra, 0 se non ci sono campioni.
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, idx))];
+    }
+
+    /**
+     * Conteggi per bucket: l'ultimo bucket raccoglie le latenze oltre l'ultimo limite.
+     */
+    public synchronized int[] bucketCounts() {
+        int[] counts = new int[BUCKET_BOUNDS_MS.length + 1];
+        for (int i = 0; i < count; i++) {
+            int bucket = Arrays.binarySearch(BUCKET_BOUNDS_MS, samples[i]);
+            counts[bucket >= 0 ? bucket : -bucket - 1]++;
+        }
+        return counts;
+    }
+
+    public synchronized int getCount() { return count; }
+
+    /**
+     * Riepilogo leggibile, es. "n=12 p50=1200ms p95=4100ms [<=100ms:0 <=250ms:1 ...]".
+     */
+    public String summary() {
+        int[] buckets = bucketCounts();
+        StringBuilder sb = new StringBuilder();
+        sb.append("n=").append(getCount())
+                .append(" p50=").append(percentile(50)).append("ms")
+                .append(" p95=").append(percentile(95)).append("ms [");
+        for (int i = 0; i < buckets.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(i < BUCKET_BOUNDS_MS.length ? "<=" + BUCKET_BOUNDS_MS[i] + "ms" : ">" + BUCKET_BOUNDS_MS[i - 1] + "ms")
+                    .append(':').append(buckets[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
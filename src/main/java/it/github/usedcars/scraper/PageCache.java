@@ -0,0 +1,329 @@
+package it.github.usedcars.scraper;
+
+import org.jsoup.HttpStatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache su disco delle pagine scaricate, indicizzata per hash SHA-256 dell'URL.
+ * Ogni voce e' composta da due file: il body compresso (.gz) e i metadati HTTP (.meta).
+ * Le voci scadute vengono rivalidate con ETag/Last-Modified; la dimensione totale
+ * e' limitata con eviction LRU. In modalita' offline la cache serve solo le pagine gia'
+ * salvate, senza rete: utile come archivio di replay per i test.
+ */
+public class PageCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PageCache.class);
+
+    private static final String BODY_SUFFIX = ".gz";
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * Esegue la richiesta di rete vera e propria, con gli header condizionali se disponibili.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        Response fetch(String url, String etag, String lastModified) throws IOException;
+    }
+
+    public static final class Response {
+        private final int statusCode;
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+
+        public Response(int statusCode, String body, String etag, String lastModified) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public int getStatusCode() { return statusCode; }
+        public String getBody() { return body; }
+        public String getEtag() { return etag; }
+        public String getLastModified() { return lastModified; }
+    }
+
+    private final Path directory;
+    private final Duration ttl;
+    private final long maxBytes;
+    private final boolean offline;
+    private final boolean enabled;
+
+    // Indice LRU in memoria: chiave -> dimensione del body su disco
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public PageCache(Path directory, Duration ttl, long maxBytes, boolean offline) {
+        this(directory, ttl, maxBytes, offline, true);
+    }
+
+    private PageCache(Path directory, Duration ttl, long maxBytes, boolean offline, boolean enabled) {
+        this.directory = directory;
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+        this.enabled = enabled;
+        if (enabled) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Cache disattivata: ogni richiesta va in rete.
+     */
+    public static PageCache disabled() {
+        return new PageCache(null, Duration.ZERO, 0, false, false);
+    }
+
+    /**
+     * Restituisce il body della pagina, dalla cache se ancora valida, altrimenti dalla rete.
+     */
+    public String fetch(String url, Fetcher fetcher) throws IOException {
+        return fetch(url, fetcher, body -> true);
+    }
+
+    /**
+     * Come {@link #fetch(String, Fetcher)}, ma un body scaricato viene salvato solo se
+     * {@code cacheable} lo accetta: una pagina di blocco o un captcha risponde 200 ma non va
+     * servito dalla cache per tutto il TTL. Il body scartato viene comunque restituito.
+     */
+    public String fetch(String url, Fetcher fetcher, Predicate<String> cacheable) throws IOException {
+        return fetch(url, fetcher, cacheable, false);
+    }
+
+    /**
+     * Come {@link #fetch(String, Fetcher, Predicate)}, ma ignora il TTL: la voce in cache, anche se
+     * fresca, viene sempre rivalidata con il server (ETag/Last-Modified). Per le letture che devono
+     * vedere lo stato attuale della pagina, come la ricerca incrementale.
+     */
+    public String revalidate(String url, Fetcher fetcher, Predicate<String> cacheable) throws IOException {
+        return fetch(url, fetcher, cacheable, true);
+    }
+
+    private String fetch(String url, Fetcher fetcher, Predicate<String> cacheable, boolean revalidate)
+            throws IOException {
+        if (!enabled) {
+            return requireSuccess(url, fetcher.fetch(url, null, null)).getBody();
+        }
+
+        String key = keyFor(url);
+        Properties meta = readMeta(key);
+
+        if (offline) {
+            if (meta == null) {
+                throw new IOException("Pagina non presente in cache (modalita' offline): " + url);
+            }
+            hits.incrementAndGet();
+            return readBody(key);
+        }
+
+        if (meta != null && !revalidate && isFresh(meta)) {
+            hits.incrementAndGet();
+            touch(key);
+            log.debug("Cache hit: {}", url);
+            return readBody(key);
+        }
+
+        Response response = meta != null
+                ? fetcher.fetch(url, meta.getProperty("etag"), meta.getProperty("lastModified"))
+                : fetcher.fetch(url, null, null);
+
+        if (response.getStatusCode() == 304 && meta != null) {
+            revalidations.incrementAndGet();
+            meta.setProperty("storedAt", Long.toString(System.currentTimeMillis()));
+            writeMeta(key, meta);
+            touch(key);
+            log.debug("Cache rivalidata (304): {}", url);
+            return readBody(key);
+        }
+
+        requireSuccess(url, response);
+        misses.incrementAndGet();
+        if (cacheable.test(response.getBody())) {
+            store(key, url, response);
+        } else {
+            log.debug("Pagina non salvata in cache, contenuto non valido: {}", url);
+        }
+        return response.getBody();
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getRevalidations() { return revalidations.get(); }
+    public long getMisses() { return misses.get(); }
+
+    public synchronized long getTotalBytes() { return totalBytes; }
+
+    // ---- Logica interna ----
+
+    private static Response requireSuccess(String url, Response response) throws IOException {
+        int status = response.getStatusCode();
+        if (status < 200 || status >= 300) {
+            throw new HttpStatusException("HTTP error fetching URL", status, url);
+        }
+        return response;
+    }
+
+    private boolean isFresh(Properties meta) {
+        long storedAt = Long.parseLong(meta.getProperty("storedAt", "0"));
+        return System.currentTimeMillis() - storedAt < ttl.toMillis();
+    }
+
+    private void store(String key, String url, Response response) {
+        Properties meta = new Properties();
+        meta.setProperty("url", url);
+        meta.setProperty("storedAt", Long.toString(System.currentTimeMillis()));
+        if (response.getEtag() != null) meta.setProperty("etag", response.getEtag());
+        if (response.getLastModified() != null) meta.setProperty("lastModified", response.getLastModified());
+
+        try {
+            Path body = directory.resolve(key + BODY_SUFFIX);
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            try (Writer writer = new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8)) {
+                writer.write(response.getBody());
+            }
+            Files.move(tmp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeMeta(key, meta);
+            record(key, Files.size(body));
+        } catch (IOException e) {
+            // La cache e' un'ottimizzazione: un errore di scrittura non deve far fallire lo scraping
+            log.warn("Impossibile salvare in cache {}: {}", url, e.getMessage());
+        }
+    }
+
+    private synchronized void record(String key, long size) {
+        Long previous = index.put(key, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        evictIfNeeded();
+    }
+
+    private synchronized void touch(String key) {
+        index.get(key);
+        try {
+            Files.setLastModifiedTime(directory.resolve(key + META_SUFFIX), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Impossibile aggiornare l'accesso per {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey() + BODY_SUFFIX));
+                Files.deleteIfExists(directory.resolve(eldest.getKey() + META_SUFFIX));
+            } catch (IOException e) {
+                log.debug("Impossibile rimuovere la voce {}: {}", eldest.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void loadIndex() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> metas = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(p -> p.getFileName().toString().endsWith(META_SUFFIX)).forEach(metas::add);
+            }
+            // Dal meno recente al piu' recente, per ricostruire l'ordine LRU
+            metas.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+            for (Path meta : metas) {
+                String name = meta.getFileName().toString();
+                String key = name.substring(0, name.length() - META_SUFFIX.length());
+                Path body = directory.resolve(key + BODY_SUFFIX);
+                if (Files.exists(body)) {
+                    long size = Files.size(body);
+                    index.put(key, size);
+                    totalBytes += size;
+                }
+            }
+            evictIfNeeded();
+            log.info("Cache pagine: {} voci, {} KB in {}", index.size(), totalBytes / 1024, directory);
+        } catch (IOException e) {
+            log.warn("Impossibile inizializzare la cache in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private Properties readMeta(String key) {
+        Path meta = directory.resolve(key + META_SUFFIX);
+        if (!Files.exists(meta) || !Files.exists(directory.resolve(key + BODY_SUFFIX))) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            return properties;
+        } catch (IOException e) {
+            log.debug("Metadati cache illeggibili per {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeMeta(String key, Properties meta) throws IOException {
+        Path target = directory.resolve(key + META_SUFFIX);
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            meta.store(out, null);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String readBody(String key) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(directory.resolve(key + BODY_SUFFIX)))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
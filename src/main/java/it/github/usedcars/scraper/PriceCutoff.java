@@ -0,0 +1,16 @@
+package it.github.usedcars.scraper;
+
+/**
+ * Condizione di arresto anticipato per le ricerche che scorrono gli annunci dal prezzo piu' basso:
+ * quando nessun annuncio a partire da un certo prezzo puo' piu' entrare tra i migliori risultati,
+ * le pagine successive non servono.
+ */
+@FunctionalInterface
+public interface PriceCutoff {
+
+    /**
+     * @param minPrice prezzo minimo degli annunci non ancora scaricati
+     * @return true se nessuno di quegli annunci puo' migliorare la classifica attuale
+     */
+    boolean canStopFrom(int minPrice);
+}
@@ -0,0 +1,99 @@
+package it.github.usedcars.scraper;
+
+import it.github.usedcars.model.CarListing;
+import it.github.usedcars.model.SearchCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Decoratore che aggiunge a un {@link CarScraper} un circuit breaker e un istogramma delle latenze.
+ * Con il circuito aperto la ricerca fallisce subito, cosi' l'utente riceve i risultati parziali
+ * delle altre fonti invece di aspettare una fonte gia' nota come non disponibile.
+ * Errori e timeout (chiamate interrotte dalla scadenza della ricerca) contano come fallimenti.
+ */
+public class ResilientScraper implements CarScraper {
+
+    private static final Logger log = LoggerFactory.getLogger(ResilientScraper.class);
+
+    private final CarScraper delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final LatencyHistogram latencies;
+
+    public ResilientScraper(CarScraper delegate, CircuitBreaker circuitBreaker, LatencyHistogram latencies) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.latencies = latencies;
+    }
+
+    @Override
+    public String getSourceName() {
+        return delegate.getSourceName();
+    }
+
+    @Override
+    public String buildSearchUrl(SearchCriteria criteria) {
+        return delegate.buildSearchUrl(criteria);
+    }
+
+    @Override
+    public List<CarListing> search(SearchCriteria criteria) throws ScraperException {
+        return guarded(() -> delegate.search(criteria));
+    }
+
+    @Override
+    public void search(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer) throws ScraperException {
+        guarded(() -> {
+            delegate.search(criteria, batchConsumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void search(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer,
+                       PriceCutoff cutoff) throws ScraperException {
+        guarded(() -> {
+            delegate.search(criteria, batchConsumer, cutoff);
+            return null;
+        });
+    }
+
+    @Override
+    public void searchNew(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer) throws ScraperException {
+        guarded(() -> {
+            delegate.searchNew(criteria, batchConsumer);
+            return null;
+        });
+    }
+
+    public CircuitBreaker getCircuitBreaker() { return circuitBreaker; }
+    public LatencyHistogram getLatencies() { return latencies; }
+
+    private <T> T guarded(ScraperCall<T> call) throws ScraperException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new ScraperException("fonte temporaneamente esclusa dopo errori ripetuti, nuovo tentativo tra "
+                    + TimeUnit.MILLISECONDS.toSeconds(circuitBreaker.remainingOpenMs()) + "s");
+        }
+
+        long start = System.nanoTime();
+        try {
+            T result = call.run();
+            circuitBreaker.recordSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            circuitBreaker.recordFailure();
+            throw e;
+        } finally {
+            latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            log.info("{}: circuito {}, latenze {}", getSourceName(), circuitBreaker.getState(), latencies.summary());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ScraperCall<T> {
+        T run() throws ScraperException;
+    }
+}
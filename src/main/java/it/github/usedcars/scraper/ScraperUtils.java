@@ -1,19 +1,21 @@
 package it.github.usedcars.scraper;
 
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class ScraperUtils {
 
     private static final Logger log = LoggerFactory.getLogger(ScraperUtils.class);
     private static final Random random = new Random();
+    private static volatile HttpFetcher httpFetcher =
+            new HttpFetcher(new HostRateLimiter(1.0, 1), PageCache.disabled(), Duration.ofSeconds(15), 2, 1000);
 
     private static final List<String> USER_AGENTS = List.of(
             "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36",
@@ -22,31 +24,32 @@ public class ScraperUtils {
             "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:121.0) Gecko/20100101 Firefox/121.0"
     );
 
+    /**
+     * Imposta il motore di download condiviso usato da {@link #fetchPage(String)}.
+     */
+    public static void setHttpFetcher(HttpFetcher fetcher) {
+        httpFetcher = fetcher;
+    }
+
     public static Document fetchPage(String url) throws IOException {
-        String userAgent = USER_AGENTS.get(random.nextInt(USER_AGENTS.size()));
-        log.debug("Fetching URL: {}", url);
+        return httpFetcher.fetchDocument(url);
+    }
 
-        Connection connection = Jsoup.connect(url)
-                .userAgent(userAgent)
-                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
-                .header("Accept-Language", "it-IT,it;q=0.9,en-US;q=0.8,en;q=0.7")
-                .header("Accept-Encoding", "gzip, deflate, br")
-                .header("Connection", "keep-alive")
-                .timeout(15000)
-                .followRedirects(true);
+    static String randomUserAgent() {
+        return USER_AGENTS.get(random.nextInt(USER_AGENTS.size()));
+    }
 
-        return connection.get();
+    /**
+     * Attesa di backoff esponenziale con jitter completo: un valore casuale tra 0 e
+     * min(maxMs, baseMs * 2^attempt). Il jitter evita che client diversi riprovino in sincrono.
+     */
+    public static long backoffDelayMs(int attempt, int baseMs, int maxMs) {
+        long ceiling = Math.min((long) maxMs, (long) baseMs << Math.min(attempt, 20));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
     }
 
-    public static void delay(int baseMs) {
-        try {
-            // Delay randomizzato: base +/- 50%
-            int jitter = random.nextInt(baseMs);
-            int totalDelay = baseMs / 2 + jitter;
-            Thread.sleep(totalDelay);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+    public static void backoff(int attempt, int baseMs, int maxMs) throws InterruptedException {
+        Thread.sleep(backoffDelayMs(attempt, baseMs, maxMs));
     }
 
     public static int parsePrice(String priceText) {
@@ -0,0 +1,189 @@
+package it.github.usedcars.scraper;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.github.usedcars.model.CarListing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Ricorda, per ogni ricerca, il punto fino a cui gli annunci sono gia' stati visti: la data di
+ * pubblicazione dell'annuncio piu' recente (high-watermark) e gli annunci con quella stessa data,
+ * per distinguere i pari merito. Ricavato solo da pagine ordinate per data, cosi' tutto cio' che
+ * e' piu' vecchio del watermark e' davvero gia' passato.
+ * La chiave e' l'URL di ricerca normalizzato (senza paginazione e ordinamento).
+ * Limitato nel numero di ricerche; con un path il contenuto viene salvato su disco tra
+ * un'esecuzione e l'altra.
+ */
+public class SeenListingsStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SeenListingsStore.class);
+
+    private static final int MAX_SEARCHES = 200;
+    private static final int MAX_IDS_AT_NEWEST = 50;
+    private static final Set<String> VOLATILE_PARAMS = Set.of("o", "order");
+
+    private final Path file;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Ordine di accesso: la ricerca usata meno di recente viene scartata per prima
+    private final LinkedHashMap<String, StoredWatermark> watermarks = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param file file JSON di persistenza, oppure null per tenere tutto solo in memoria
+     */
+    public SeenListingsStore(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Normalizza un URL di ricerca: rimuove pagina e ordinamento e ordina i parametri.
+     */
+    public static String normalizeSearchUrl(String url) {
+        int queryStart = url.indexOf('?');
+        String base = (queryStart >= 0 ? url.substring(0, queryStart) : url).toLowerCase();
+        if (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+        if (queryStart < 0) return base;
+
+        String query = Arrays.stream(url.substring(queryStart + 1).split("&"))
+                .filter(param -> !param.isBlank())
+                .filter(param -> !VOLATILE_PARAMS.contains(param.split("=", 2)[0]))
+                .map(String::toLowerCase)
+                .sorted()
+                .collect(Collectors.joining("&"));
+        return query.isEmpty() ? base : base + "?" + query;
+    }
+
+    /**
+     * Watermark registrato per la ricerca, null se la ricerca incrementale non e' mai stata eseguita.
+     */
+    public synchronized Watermark watermark(String searchKey) {
+        StoredWatermark stored = watermarks.get(searchKey);
+        return stored != null ? new Watermark(stored.newest, Set.copyOf(stored.idsAtNewest)) : null;
+    }
+
+    /**
+     * Registra il nuovo watermark della ricerca; non torna mai indietro rispetto a quello attuale.
+     */
+    public synchronized void advance(String searchKey, Watermark watermark) {
+        StoredWatermark current = watermarks.get(searchKey);
+        if (current != null && current.newest > watermark.newest) return;
+        watermarks.put(searchKey, StoredWatermark.of(watermark));
+        Iterator<String> eldest = watermarks.keySet().iterator();
+        while (watermarks.size() > MAX_SEARCHES && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void save() {
+        if (file == null) return;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "seen", ".tmp");
+            objectMapper.writeValue(tmp.toFile(), watermarks);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Impossibile salvare gli annunci visti in {}: {}", file, e.getMessage());
+        }
+    }
+
+    // ---- Logica interna ----
+
+    static String idOf(CarListing listing) {
+        if (listing.getUrl() != null && !listing.getUrl().isBlank()) {
+            return listing.getUrl();
+        }
+        return listing.getTitle() + "|" + listing.getPrice() + "|" + listing.getYear() + "|" + listing.getKilometers();
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file)) return;
+        try {
+            Map<String, StoredWatermark> stored = objectMapper.readValue(file.toFile(),
+                    new TypeReference<LinkedHashMap<String, StoredWatermark>>() {});
+            watermarks.putAll(stored);
+            log.info("Caricati i watermark di {} ricerche da {}", watermarks.size(), file);
+        } catch (IOException e) {
+            log.warn("Impossibile leggere gli annunci visti da {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Data dell'annuncio piu' recente visto per una ricerca, con gli annunci pubblicati in quell'istante.
+     * Immutabile.
+     */
+    public static final class Watermark {
+
+        /** Nessun annuncio visto: tutto cio' che ha una data e' nuovo. */
+        public static final Watermark NONE = new Watermark(0, Set.of());
+
+        private final long newest;
+        private final Set<String> idsAtNewest;
+
+        private Watermark(long newest, Set<String> idsAtNewest) {
+            this.newest = newest;
+            this.idsAtNewest = idsAtNewest;
+        }
+
+        /**
+         * true se l'annuncio e' stato pubblicato dopo il watermark, o nello stesso istante ma non era
+         * tra quelli visti. Gli annunci senza data non si possono collocare e non sono considerati nuovi.
+         */
+        public boolean isNewer(CarListing listing) {
+            long publishedAt = listing.getPublishedAt();
+            if (publishedAt <= 0) return false;
+            return publishedAt > newest || (publishedAt == newest && !idsAtNewest.contains(idOf(listing)));
+        }
+
+        /** true se un annuncio con questa data e' gia' stato coperto dal watermark. */
+        public boolean covers(long publishedAt) {
+            return publishedAt > 0 && publishedAt <= newest;
+        }
+
+        /**
+         * Watermark spostato all'annuncio piu' recente tra quelli indicati, se piu' recente del corrente.
+         */
+        public Watermark advancedBy(List<CarListing> listings) {
+            long max = newest;
+            for (CarListing listing : listings) {
+                max = Math.max(max, listing.getPublishedAt());
+            }
+            Set<String> ids = new LinkedHashSet<>(max == newest ? idsAtNewest : Set.of());
+            for (CarListing listing : listings) {
+                if (listing.getPublishedAt() == max && max > 0 && ids.size() < MAX_IDS_AT_NEWEST) {
+                    ids.add(idOf(listing));
+                }
+            }
+            return new Watermark(max, Set.copyOf(ids));
+        }
+
+        public long getNewest() { return newest; }
+    }
+
+    /** Forma serializzata di un watermark. */
+    static class StoredWatermark {
+        public long newest;
+        public List<String> idsAtNewest = List.of();
+
+        static StoredWatermark of(Watermark watermark) {
+            StoredWatermark stored = new StoredWatermark();
+            stored.newest = watermark.newest;
+            stored.idsAtNewest = List.copyOf(watermark.idsAtNewest);
+            return stored;
+        }
+    }
+}
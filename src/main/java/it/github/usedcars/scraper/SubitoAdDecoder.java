@@ -0,0 +1,337 @@
+package it.github.usedcars.scraper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+import it.github.usedcars.model.CarListing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodifica l'array degli annunci Subito.it direttamente in {@link CarListing},
+ * in un'unica passata sul {@link JsonParser} e senza nodi intermedi.
+ * I nomi dei campi sono risolti con switch su costanti; i valori numerici delle
+ * feature vengono letti dal buffer del parser senza creare stringhe.
+ * Un annuncio malformato viene saltato senza far fallire la pagina.
+ */
+final class SubitoAdDecoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubitoAdDecoder.class);
+
+    // "date" degli annunci: ora locale italiana, es. "2024-05-10 12:34:56"
+    private static final DateTimeFormatter AD_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ZoneId AD_ZONE = ZoneId.of("Europe/Rome");
+
+    private final String sourceName;
+
+    SubitoAdDecoder(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * Legge tutti gli annunci. Il parser deve essere posizionato su START_ARRAY.
+     */
+    List<CarListing> decodeAds(JsonParser parser) throws IOException {
+        List<CarListing> listings = new ArrayList<>();
+        int arrayDepth = parser.getParsingContext().getNestingDepth();
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            try {
+                CarListing listing = decodeElement(parser);
+                if (listing != null) {
+                    listings.add(listing);
+                }
+            } catch (JsonParseException e) {
+                // JSON sintatticamente rotto: impossibile risincronizzarsi
+                throw e;
+            } catch (Exception e) {
+                logger.warn("Errore parsing annuncio singolo: {}", e.getMessage());
+                skipToDepth(parser, arrayDepth);
+            }
+        }
+
+        return listings;
+    }
+
+    /**
+     * Un elemento della lista puo' essere l'annuncio stesso oppure un wrapper con il campo "item".
+     */
+    private CarListing decodeElement(JsonParser parser) throws IOException {
+        AdState outer = new AdState(sourceName);
+        AdState item = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("item".equals(field) && value == JsonToken.START_OBJECT) {
+                item = new AdState(sourceName);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String itemField = parser.currentName();
+                    parser.nextToken();
+                    item.readField(parser, itemField);
+                }
+            } else {
+                outer.readField(parser, field);
+            }
+        }
+
+        AdState ad = item != null ? item : outer;
+        return ad.isSkipped() ? null : ad.listing;
+    }
+
+    private static void skipToDepth(JsonParser parser, int depth) throws IOException {
+        while (parser.getParsingContext().getNestingDepth() > depth) {
+            if (parser.nextToken() == null) return;
+        }
+    }
+
+    private static final class AdState {
+        private final CarListing listing = new CarListing();
+        private String kind;
+
+        AdState(String sourceName) {
+            listing.setSource(sourceName);
+        }
+
+        boolean isSkipped() {
+            return kind != null && !"AdItem".equals(kind);
+        }
+
+        /**
+         * Legge il valore del campo corrente. Il parser e' sul primo token del valore.
+         */
+        void readField(JsonParser parser, String field) throws IOException {
+            switch (field) {
+                case "kind" -> kind = scalarText(parser);
+                case "subject" -> listing.setTitle(scalarText(parser));
+                case "date" -> listing.setPublishedAt(parseDate(scalarText(parser)));
+                case "urls" -> readUrls(parser);
+                case "geo" -> readGeo(parser);
+                case "features" -> readFeatures(parser);
+                default -> parser.skipChildren();
+            }
+        }
+
+        private void readUrls(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("default".equals(field)) {
+                    listing.setUrl(scalarText(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void readGeo(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            String town = null;
+            String city = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "town" -> town = readValueField(parser);
+                    case "city" -> city = readValueField(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+
+            StringBuilder location = new StringBuilder();
+            if (town != null) location.append(town);
+            if (city != null) {
+                if (location.length() > 0) location.append(", ");
+                location.append(city);
+            }
+            listing.setLocation(location.toString());
+        }
+
+        /** Legge {"value": "..."} restituendo il valore, o null se assente. */
+        private static String readValueField(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return null;
+            }
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("value".equals(field)) {
+                    value = scalarText(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return value;
+        }
+
+        private void readFeatures(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String feature = parser.currentName();
+                parser.nextToken();
+                switch (feature) {
+                    case "/price" -> readFirstValue(parser, Feature.PRICE);
+                    case "/mileage_scalar" -> readFirstValue(parser, Feature.MILEAGE);
+                    case "/year" -> readFirstValue(parser, Feature.YEAR);
+                    case "/fuel" -> readFirstValue(parser, Feature.FUEL);
+                    case "/gearbox" -> readFirstValue(parser, Feature.GEARBOX);
+                    case "/power" -> readFirstValue(parser, Feature.POWER);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+
+        /**
+         * Legge {"values":[{"key":..., "value":...}, ...]} considerando solo il primo elemento:
+         * le feature numeriche usano "key", quelle testuali "value".
+         */
+        private void readFirstValue(JsonParser parser, Feature feature) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (!"values".equals(field) || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                boolean first = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (first && parser.currentToken() == JsonToken.START_OBJECT) {
+                        readFeatureEntry(parser, feature);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    first = false;
+                }
+            }
+        }
+
+        private void readFeatureEntry(JsonParser parser, Feature feature) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (feature.numeric && "key".equals(field)) {
+                    int value = scalarInt(parser);
+                    if (value != Integer.MIN_VALUE) feature.applyInt(listing, value);
+                } else if (!feature.numeric && "value".equals(field)) {
+                    String value = scalarText(parser);
+                    if (value != null) feature.applyText(listing, value);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        /** Data di pubblicazione in millisecondi epoch, 0 se assente o in un formato inatteso. */
+        private static long parseDate(String text) {
+            if (text == null || text.isBlank()) return 0;
+            try {
+                return LocalDateTime.parse(text.trim(), AD_DATE).atZone(AD_ZONE).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return 0;
+            }
+        }
+
+        /** Testo di un valore scalare; i contenitori vengono saltati e valgono "" come JsonNode.asText(). */
+        private static String scalarText(JsonParser parser) throws IOException {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return "";
+            }
+            return parser.getValueAsString();
+        }
+
+        /**
+         * Intero da un valore numerico o da una stringa di sole cifre, letto direttamente
+         * dal buffer del parser. Restituisce Integer.MIN_VALUE se il valore non e' valido.
+         */
+        private static int scalarInt(JsonParser parser) throws IOException {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.INT) {
+                return parser.getIntValue();
+            }
+            if (token != JsonToken.VALUE_STRING) {
+                parser.skipChildren();
+                return Integer.MIN_VALUE;
+            }
+
+            char[] chars = parser.getTextCharacters();
+            int offset = parser.getTextOffset();
+            int length = parser.getTextLength();
+            if (length == 0) return Integer.MIN_VALUE;
+
+            int i = offset;
+            int end = offset + length;
+            boolean negative = chars[i] == '-';
+            if (negative || chars[i] == '+') i++;
+            if (i == end) return Integer.MIN_VALUE;
+
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = chars[i] - '0';
+                if (digit < 0 || digit > 9) return Integer.MIN_VALUE;
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE) return Integer.MIN_VALUE;
+            }
+            return (int) (negative ? -value : value);
+        }
+    }
+
+    private enum Feature {
+        PRICE(true), MILEAGE(true), YEAR(true), FUEL(false), GEARBOX(false), POWER(false);
+
+        private final boolean numeric;
+
+        Feature(boolean numeric) {
+            this.numeric = numeric;
+        }
+
+        void applyInt(CarListing listing, int value) {
+            switch (this) {
+                case PRICE -> listing.setPrice(value);
+                case MILEAGE -> listing.setKilometers(value);
+                case YEAR -> listing.setYear(value);
+                default -> { }
+            }
+        }
+
+        void applyText(CarListing listing, String value) {
+            switch (this) {
+                case FUEL -> listing.setFuelType(value);
+                case GEARBOX -> listing.setTransmission(value);
+                case POWER -> listing.setPower(value);
+                default -> { }
+            }
+        }
+    }
+}
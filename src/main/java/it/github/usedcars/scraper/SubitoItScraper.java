@@ -1,35 +1,83 @@
 package it.github.usedcars.scraper;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import it.github.usedcars.model.CarListing;
 import it.github.usedcars.model.SearchCriteria;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class SubitoItScraper implements CarScraper {
 
     private static final Logger logger = LoggerFactory.getLogger(SubitoItScraper.class);
     private static final String SOURCE_NAME = "Subito.it";
-    private static final String BASE_URL = "https://www.subito.it/annunci-italia/vendita/auto";
-    private static final int REQUEST_DELAY_MS = 1000;
+    private static final String BASE_URL_PREFIX = "https://www.subito.it/annunci-";
+    private static final String CATEGORY_PATH = "/vendita/auto";
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 1.0;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(15);
+
+    // Codici dei filtri strutturati di Subito.it (parametri gr= e fu=), con i sinonimi piu' comuni
+    private static final Map<String, String> GEARBOX_CODES = Map.of(
+            "manuale", "1",
+            "automatico", "2");
+    private static final Map<String, String> FUEL_CODES = Map.ofEntries(
+            Map.entry("benzina", "1"),
+            Map.entry("diesel", "2"),
+            Map.entry("gasolio", "2"),
+            Map.entry("gpl", "3"),
+            Map.entry("metano", "4"),
+            Map.entry("elettrica", "5"),
+            Map.entry("elettrico", "5"),
+            Map.entry("ibrida", "6"),
+            Map.entry("ibrido", "6"));
+
+    private static final String ORDER_NEWEST = "datedesc";
+    private static final String ORDER_PRICE_ASCENDING = "priceasc";
+
+    private static final String NEXT_DATA_SCRIPT_ID = "id=\"__NEXT_DATA__\"";
+    private static final String NEXT_DATA_ASSIGNMENT = "window.__NEXT_DATA__";
+    private static final String INLINE_ADS_PREFIX = "{\"ads\":{";
+    private static final String SCRIPT_END = "</script>";
+    private static final String[] NEXT_DATA_ADS_PATH = {"props", "pageProps", "initialState", "items", "list"};
+    private static final String[] INLINE_ADS_PATH = {"ads", "list"};
 
     private final int maxResults;
+    private final HttpFetcher fetcher;
     private final ObjectMapper objectMapper;
+    private final SubitoAdDecoder adDecoder;
+    private final SeenListingsStore seenListings;
+    private final boolean priceOrdered;
 
     public SubitoItScraper(int maxResults) {
+        this(maxResults, new HttpFetcher(new HostRateLimiter(DEFAULT_REQUESTS_PER_SECOND, 1),
+                PageCache.disabled(), DEFAULT_TIMEOUT, 2, 1000), new SeenListingsStore(null), false);
+    }
+
+    /**
+     * @param priceOrdered true per scorrere gli annunci per prezzo crescente quando c'e' un cutoff
+     */
+    public SubitoItScraper(int maxResults, HttpFetcher fetcher, SeenListingsStore seenListings,
+                           boolean priceOrdered) {
         this.maxResults = maxResults;
+        this.fetcher = fetcher;
+        this.seenListings = seenListings;
+        this.priceOrdered = priceOrdered;
         this.objectMapper = new ObjectMapper();
+        this.adDecoder = new SubitoAdDecoder(SOURCE_NAME);
     }
 
     @Override
@@ -39,21 +87,85 @@ public class SubitoItScraper implements CarScraper {
 
     @Override
     public String buildSearchUrl(SearchCriteria criteria) {
-        return buildUrl(criteria, 1);
+        return buildUrl(criteria, 1, null);
     }
 
     @Override
     public List<CarListing> search(SearchCriteria criteria) throws ScraperException {
         List<CarListing> allListings = new ArrayList<>();
-        int maxPages = (maxResults / 20) + 1;
+        search(criteria, allListings::addAll);
+        return allListings;
+    }
 
-        for (int page = 1; page <= maxPages && allListings.size() < maxResults; page++) {
-            logger.info("Scraping pagina {} di {}", page, maxPages);
+    /**
+     * Consegna ogni pagina al consumer appena e' pronta, rispettando l'ordine delle pagine.
+     * Gli annunci consegnati aggiornano il watermark della ricerca incrementale.
+     */
+    @Override
+    public void search(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer) throws ScraperException {
+        int maxPages = (maxResults / 20) + 1;
+        int delivered = 0;
+        SeenListingsStore.Watermark seen = currentWatermark(criteria);
+
+        // Le pagine partono tutte insieme su virtual thread; il ritmo reale lo decide il rate limiter.
+        // lastPage evita di scaricare pagine successive a una vuota.
+        AtomicInteger lastPage = new AtomicInteger(Integer.MAX_VALUE);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<CarListing>>> pages = new ArrayList<>();
+            for (int page = 1; page <= maxPages; page++) {
+                int pageNumber = page;
+                pages.add(executor.submit(() -> fetchPage(criteria, pageNumber, maxPages, lastPage)));
+            }
 
             try {
-                String url = buildUrl(criteria, page);
-                logger.debug("URL: {}", url);
+                // Consegna in ordine di pagina
+                for (int i = 0; i < pages.size() && delivered < maxResults; i++) {
+                    List<CarListing> pageListings = awaitPage(pages.get(i));
 
+                    if (pageListings.isEmpty()) {
+                        logger.info("Nessun annuncio trovato a pagina {}, interruzione", i + 1);
+                        break;
+                    }
+
+                    delivered += pageListings.size();
+                    logger.info("Trovati {} annunci a pagina {}", pageListings.size(), i + 1);
+                    batchConsumer.accept(pageListings);
+                    seen = seen.advancedBy(pageListings);
+                }
+            } finally {
+                pages.forEach(f -> f.cancel(true));
+                recordSeen(criteria, seen);
+            }
+        }
+
+        logger.info("Totale annunci trovati: {}", delivered);
+    }
+
+    /**
+     * Il cutoff vale solo con l'ordinamento per prezzo attivato (SCRAPER_PRICE_ORDER): le pagine
+     * vengono chieste per prezzo crescente e una alla volta, perche' dopo ogni pagina il prezzo
+     * dell'ultimo annuncio e' un minimo per tutti i successivi e, se il cutoff conferma che da quel
+     * prezzo in su nessuno puo' entrare tra i migliori, la pagina dopo non viene nemmeno richiesta.
+     * Cambia pero' l'insieme dei risultati: i maxResults annunci piu' economici invece di quelli
+     * dell'ordinamento predefinito del sito. Senza l'opzione il cutoff e' ignorato.
+     */
+    @Override
+    public void search(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer,
+                       PriceCutoff cutoff) throws ScraperException {
+        if (cutoff == null || !priceOrdered) {
+            search(criteria, batchConsumer);
+            return;
+        }
+
+        int maxPages = (maxResults / 20) + 1;
+        int delivered = 0;
+        SeenListingsStore.Watermark seen = currentWatermark(criteria);
+        try {
+            for (int page = 1; page <= maxPages && delivered < maxResults; page++) {
+                String url = buildUrl(criteria, page, ORDER_PRICE_ASCENDING);
+                logger.info("Scraping pagina {} di {} per prezzo crescente", page, maxPages);
+                logger.debug("URL: {}", url);
                 List<CarListing> pageListings = scrapePage(url);
 
                 if (pageListings.isEmpty()) {
@@ -61,258 +173,336 @@ public class SubitoItScraper implements CarScraper {
                     break;
                 }
 
-                allListings.addAll(pageListings);
+                delivered += pageListings.size();
                 logger.info("Trovati {} annunci a pagina {}", pageListings.size(), page);
+                batchConsumer.accept(pageListings);
+                seen = seen.advancedBy(pageListings);
 
-                if (page < maxPages) {
-                    Thread.sleep(REQUEST_DELAY_MS);
+                int minRemainingPrice = ascendingPriceFloor(pageListings);
+                if (minRemainingPrice > 0 && page < maxPages && cutoff.canStopFrom(minRemainingPrice)) {
+                    logger.info("Arresto anticipato dopo pagina {} di {}: nessun annuncio da {} EUR in su "
+                            + "puo' entrare tra i migliori", page, maxPages, minRemainingPrice);
+                    break;
                 }
-
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new ScraperException("Scraping interrotto", e);
             }
+        } finally {
+            recordSeen(criteria, seen);
         }
 
-        logger.info("Totale annunci trovati: {}", allListings.size());
-        return allListings;
+        logger.info("Totale annunci trovati: {}", delivered);
     }
 
-    private String buildUrl(SearchCriteria criteria, int page) {
-        StringBuilder urlBuilder = new StringBuilder(BASE_URL);
+    /**
+     * Ricerca incrementale: ordina per data e scorre le pagine una alla volta, consegnando solo gli
+     * annunci pubblicati dopo il watermark della stessa ricerca. Si ferma appena una pagina raggiunge
+     * il watermark: le successive contengono solo annunci piu' vecchi. Di solito basta una pagina.
+     * Il watermark di partenza viene dalla ricerca completa con gli stessi criteri; se non c'e'
+     * (nessuna ricerca completa, o nessun annuncio datato) la prima volta registra solo il punto di
+     * partenza, senza consegnare nulla.
+     * Il watermark avanza solo se la scansione arriva in fondo: dopo un errore le pagine non lette
+     * verranno riprese la volta successiva.
+     */
+    @Override
+    public void searchNew(SearchCriteria criteria, Consumer<List<CarListing>> batchConsumer) throws ScraperException {
+        int maxPages = (maxResults / 20) + 1;
+        String searchKey = searchKey(criteria);
+        SeenListingsStore.Watermark previous = seenListings.watermark(searchKey);
+        SeenListingsStore.Watermark next = previous != null ? previous : SeenListingsStore.Watermark.NONE;
+        boolean completed = false;
+        int fetched = 0;
+        int delivered = 0;
+
+        try {
+            for (int page = 1; page <= maxPages; page++) {
+                // Una copia in cache ancora fresca nasconderebbe gli annunci pubblicati nel frattempo
+                List<CarListing> pageListings = scrapePage(buildUrl(criteria, page, ORDER_NEWEST), true);
+                fetched++;
 
-        // Solo il brand va nel path (Subito usa tassonomia fissa per serie/modello)
-        if (criteria.getBrand() != null) {
-            urlBuilder.append("/").append(criteria.getBrand().toLowerCase());
+                if (pageListings.isEmpty()) {
+                    logger.info("Nessun annuncio trovato a pagina {}, interruzione", page);
+                    break;
+                }
+                next = next.advancedBy(pageListings);
+
+                if (previous == null) {
+                    logger.info("Prima ricerca incrementale per questi criteri: registrato l'annuncio piu' recente");
+                    break;
+                }
+
+                List<CarListing> fresh = pageListings.stream().filter(previous::isNewer).toList();
+                if (!fresh.isEmpty()) {
+                    delivered += fresh.size();
+                    batchConsumer.accept(fresh);
+                }
+                if (fresh.isEmpty() || previous.covers(oldestPublishedAt(pageListings))) {
+                    logger.info("Pagina {} arriva agli annunci gia' visti, interruzione", page);
+                    break;
+                }
+            }
+            completed = true;
+        } finally {
+            if (completed) {
+                seenListings.advance(searchKey, next);
+                seenListings.save();
+            } else {
+                logger.warn("Ricerca incrementale interrotta: watermark invariato, le pagine saranno riprese");
+            }
         }
 
-        urlBuilder.append("/?");
+        logger.info("Ricerca incrementale: {} annunci nuovi in {} pagine scaricate", delivered, fetched);
+    }
 
-        List<String> params = new ArrayList<>();
+    private SeenListingsStore.Watermark currentWatermark(SearchCriteria criteria) {
+        SeenListingsStore.Watermark current = seenListings.watermark(searchKey(criteria));
+        return current != null ? current : SeenListingsStore.Watermark.NONE;
+    }
 
-        params.add("o=" + page);
+    /**
+     * Registra come visti gli annunci consegnati da una ricerca completa, anche se interrotta: la prima
+     * ricerca incrementale riporta cosi' gli annunci usciti dopo, invece di usarli come punto di partenza.
+     */
+    private void recordSeen(SearchCriteria criteria, SeenListingsStore.Watermark seen) {
+        if (seen.getNewest() <= 0) return;
+        seenListings.advance(searchKey(criteria), seen);
+        seenListings.save();
+    }
 
-        // Modello, vehicle type e fuel type vanno come query testuale
-        // Subito li cerca nel titolo/descrizione degli annunci
-        StringBuilder queryParts = new StringBuilder();
-        if (criteria.getModel() != null) {
-            queryParts.append(criteria.getModel());
-        }
-        if (criteria.getFuelType() != null) {
-            if (queryParts.length() > 0) queryParts.append(" ");
-            queryParts.append(criteria.getFuelType());
-        }
-        if (queryParts.length() > 0) {
-            params.add("q=" + queryParts.toString().replace(" ", "+"));
+    private String searchKey(SearchCriteria criteria) {
+        return SeenListingsStore.normalizeSearchUrl(buildSearchUrl(criteria));
+    }
+
+    /**
+     * Data dell'ultimo annuncio datato della pagina: in ordine per data e' il piu' vecchio, mentre
+     * in cima possono esserci annunci in evidenza fuori sequenza. 0 se nessuno ha una data.
+     */
+    private static long oldestPublishedAt(List<CarListing> pageListings) {
+        for (int i = pageListings.size() - 1; i >= 0; i--) {
+            long publishedAt = pageListings.get(i).getPublishedAt();
+            if (publishedAt > 0) return publishedAt;
         }
+        return 0;
+    }
 
-        if (criteria.getMaxPrice() > 0) {
-            params.add("pe=" + criteria.getMaxPrice());
+    private List<CarListing> fetchPage(SearchCriteria criteria, int page, int maxPages, AtomicInteger lastPage) {
+        if (page > lastPage.get()) {
+            return List.of();
         }
 
-        urlBuilder.append(String.join("&", params));
-        String url = urlBuilder.toString();
-        logger.info("URL di ricerca Subito.it generato: {}", url);
-        return url;
+        String url = buildUrl(criteria, page, null);
+        logger.info("Scraping pagina {} di {}", page, maxPages);
+        logger.debug("URL: {}", url);
+        List<CarListing> pageListings = scrapePage(url);
+
+        if (pageListings.isEmpty()) {
+            lastPage.accumulateAndGet(page, Math::min);
+        }
+        return pageListings;
     }
 
-    private List<CarListing> scrapePage(String url) throws ScraperException {
-        List<CarListing> listings = new ArrayList<>();
+    /**
+     * Prezzo dell'ultimo annuncio di una pagina ordinata per prezzo crescente, minimo garantito per
+     * le pagine successive. -1 se la pagina non e' davvero in ordine (es. annunci in evidenza fuori
+     * sequenza) o non ha prezzi: in quel caso non si puo' dedurre nulla.
+     * Gli annunci senza prezzo sono ignorati, tanto il filtro sul budget li scarta.
+     */
+    private static int ascendingPriceFloor(List<CarListing> pageListings) {
+        int previous = -1;
+        for (CarListing listing : pageListings) {
+            int price = listing.getPrice();
+            if (price <= 0) continue;
+            if (price < previous) return -1;
+            previous = price;
+        }
+        return previous;
+    }
 
+    private List<CarListing> awaitPage(Future<List<CarListing>> page) throws ScraperException {
         try {
-            Document doc = Jsoup.connect(url)
-                    .userAgent("Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36")
-                    .header("Accept-Language", "it-IT,it;q=0.9,en-US;q=0.8,en;q=0.7")
-                    .timeout(30000)
-                    .get();
-
-            String jsonData = extractJsonData(doc);
-
-            if (jsonData != null) {
-                listings = parseJsonListings(jsonData);
-            } else {
-                logger.warn("Nessun dato JSON trovato nella pagina");
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScraperException("Scraping interrotto", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ScraperException scraperException) {
+                throw scraperException;
             }
-
-        } catch (IOException e) {
-            throw new ScraperException("Errore durante il download della pagina: " + url, e);
+            throw new ScraperException("Errore durante lo scraping: " + e.getCause().getMessage(), e.getCause());
         }
-
-        return listings;
     }
 
-    private String extractJsonData(Document doc) {
-        Elements scripts = doc.select("script");
+    private String buildUrl(SearchCriteria criteria, int page, String order) {
+        // La regione va nel path: annunci-lombardia, annunci-italia se la zona non e' riconosciuta
+        String region = SubitoRegions.slugFor(criteria.getLocation());
+        StringBuilder urlBuilder = new StringBuilder(BASE_URL_PREFIX)
+                .append(region != null ? region : "italia")
+                .append(CATEGORY_PATH);
 
-        for (Element script : scripts) {
-            String scriptContent = script.html();
+        // Solo il brand va nel path (Subito usa tassonomia fissa per serie/modello)
+        if (criteria.getBrand() != null) {
+            urlBuilder.append("/").append(criteria.getBrand().toLowerCase());
+        }
 
-            if (scriptContent.contains("\"ads\"") && scriptContent.contains("\"list\"")) {
-                Pattern pattern = Pattern.compile("\\{\"ads\":\\{.*?\"list\":\\[.*?\\].*?\\}\\}", Pattern.DOTALL);
-                Matcher matcher = pattern.matcher(scriptContent);
+        urlBuilder.append("/?");
 
-                if (matcher.find()) {
-                    return matcher.group();
-                }
-            }
+        List<String> params = new ArrayList<>();
 
-            if (scriptContent.contains("window.__NEXT_DATA__")) {
-                Pattern pattern = Pattern.compile("window\\.__NEXT_DATA__\\s*=\\s*(\\{.*?\\});?\\s*(?:</script>|$)", Pattern.DOTALL);
-                Matcher matcher = pattern.matcher(scriptContent);
+        params.add("o=" + page);
 
-                if (matcher.find()) {
-                    return matcher.group(1);
-                }
-            }
+        if (order != null) {
+            params.add("order=" + order);
         }
 
-        Element nextDataScript = doc.selectFirst("script#__NEXT_DATA__");
-        if (nextDataScript != null) {
-            return nextDataScript.html();
+        // Il modello resta come query testuale: Subito lo cerca nel titolo/descrizione degli annunci.
+        // Subito accetta un solo q=, quindi i termini testuali vengono uniti in un'unica query
+        List<String> queryTerms = new ArrayList<>();
+        if (criteria.getModel() != null) {
+            queryTerms.add(criteria.getModel().trim());
         }
 
-        return null;
-    }
-
-    private List<CarListing> parseJsonListings(String jsonData) throws ScraperException {
-        List<CarListing> listings = new ArrayList<>();
-
-        try {
-            JsonNode root = objectMapper.readTree(jsonData);
-            JsonNode adsNode = findAdsNode(root);
-
-            if (adsNode != null && adsNode.isArray()) {
-                for (JsonNode adNode : adsNode) {
-                    try {
-                        JsonNode itemNode = adNode.has("item") ? adNode.get("item") : adNode;
-
-                        if (itemNode.has("kind") && !"AdItem".equals(itemNode.get("kind").asText())) {
-                            continue;
-                        }
-
-                        CarListing listing = parseAdNode(itemNode);
-                        if (listing != null) {
-                            listings.add(listing);
-                        }
-                    } catch (Exception e) {
-                        logger.warn("Errore parsing annuncio singolo: {}", e.getMessage());
-                    }
-                }
-            }
+        if (criteria.getMaxPrice() > 0) {
+            params.add("pe=" + criteria.getMaxPrice());
+        }
 
-        } catch (Exception e) {
-            throw new ScraperException("Errore parsing JSON: " + e.getMessage(), e);
+        // Filtri strutturati: applicati lato sito, cosi' non si scaricano annunci che verrebbero scartati
+        if (criteria.getMinYear() > 0) {
+            params.add("ys=" + criteria.getMinYear());
+        }
+        if (criteria.getMaxKilometers() > 0) {
+            params.add("me=" + criteria.getMaxKilometers());
         }
 
-        return listings;
-    }
+        String gearbox = criteria.getTransmission() != null ? GEARBOX_CODES.get(criteria.getTransmission()) : null;
+        if (gearbox != null) {
+            params.add("gr=" + gearbox);
+        }
 
-    private JsonNode findAdsNode(JsonNode root) {
-        if (root.has("props")) {
-            JsonNode props = root.get("props");
-            if (props.has("pageProps")) {
-                JsonNode pageProps = props.get("pageProps");
-                if (pageProps.has("initialState")) {
-                    JsonNode initialState = pageProps.get("initialState");
-                    if (initialState.has("items")) {
-                        JsonNode items = initialState.get("items");
-                        if (items.has("list")) {
-                            return items.get("list");
-                        }
-                    }
-                }
+        if (criteria.getFuelType() != null) {
+            String fuel = FUEL_CODES.get(criteria.getFuelType());
+            if (fuel != null) {
+                params.add("fu=" + fuel);
+            } else {
+                // Alimentazione non mappata: ripiega sulla ricerca testuale
+                queryTerms.add(criteria.getFuelType().trim());
             }
         }
 
-        if (root.has("ads")) {
-            JsonNode ads = root.get("ads");
-            if (ads.has("list")) {
-                return ads.get("list");
-            }
+        if (!queryTerms.isEmpty()) {
+            params.add("q=" + String.join(" ", queryTerms).replace(" ", "+"));
         }
 
-        return null;
+        urlBuilder.append(String.join("&", params));
+        String url = urlBuilder.toString();
+        logger.info("URL di ricerca Subito.it generato: {}", url);
+        return url;
     }
 
-    private CarListing parseAdNode(JsonNode node) {
-        CarListing listing = new CarListing();
-        listing.setSource(SOURCE_NAME);
+    private List<CarListing> scrapePage(String url) throws ScraperException {
+        return scrapePage(url, false);
+    }
 
-        if (node.has("subject")) {
-            listing.setTitle(node.get("subject").asText());
+    /**
+     * @param revalidate true per non usare una copia in cache ancora fresca (ricerca incrementale)
+     */
+    private List<CarListing> scrapePage(String url, boolean revalidate) throws ScraperException {
+        try {
+            // Senza JSON degli annunci e' una pagina di blocco o captcha: non va tenuta in cache
+            Predicate<String> cacheable = html -> locateJsonData(html) != null;
+            String html = revalidate ? fetcher.fetchFresh(url, cacheable) : fetcher.fetch(url, cacheable);
+            return parseListings(html);
+        } catch (IOException e) {
+            throw new ScraperException("Errore durante il download della pagina: " + url, e);
         }
+    }
 
-        if (node.has("urls") && node.get("urls").has("default")) {
-            listing.setUrl(node.get("urls").get("default").asText());
+    /**
+     * Estrae gli annunci dall'HTML senza costruire il DOM: individua il JSON incorporato
+     * con una scansione diretta del testo e lo legge in streaming fino all'array degli annunci,
+     * saltando tutto il resto del payload senza materializzarlo.
+     */
+    private List<CarListing> parseListings(String html) throws ScraperException {
+        JsonSource source = locateJsonData(html);
+        if (source == null) {
+            logger.warn("Nessun dato JSON trovato nella pagina");
+            return new ArrayList<>();
         }
 
-        if (node.has("geo")) {
-            JsonNode geo = node.get("geo");
-            StringBuilder location = new StringBuilder();
-
-            if (geo.has("town") && geo.get("town").has("value")) {
-                location.append(geo.get("town").get("value").asText());
+        try (JsonParser parser = objectMapper.getFactory().createParser(source.json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !seekPath(parser, source.adsPath, 0)) {
+                logger.warn("Lista annunci non trovata nel JSON della pagina");
+                return new ArrayList<>();
             }
-            if (geo.has("city") && geo.get("city").has("value")) {
-                if (location.length() > 0) location.append(", ");
-                location.append(geo.get("city").get("value").asText());
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                return new ArrayList<>();
             }
-
-            listing.setLocation(location.toString());
+            return adDecoder.decodeAds(parser);
+        } catch (IOException e) {
+            throw new ScraperException("Errore parsing JSON: " + e.getMessage(), e);
         }
+    }
 
-        if (node.has("features")) {
-            JsonNode features = node.get("features");
-
-            Integer price = extractFeatureIntValue(features, "/price");
-            if (price != null) listing.setPrice(price);
-
-            Integer mileage = extractFeatureIntValue(features, "/mileage_scalar");
-            if (mileage != null) listing.setKilometers(mileage);
-
-            Integer year = extractFeatureIntValue(features, "/year");
-            if (year != null) listing.setYear(year);
+    /**
+     * Avanza il parser fino al valore che si trova al percorso indicato, saltando
+     * con skipChildren() tutti i rami non interessanti. Il parser deve essere su START_OBJECT.
+     */
+    private static boolean seekPath(JsonParser parser, String[] path, int depth) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if (path[depth].equals(field)) {
+                if (depth == path.length - 1) {
+                    return true;
+                }
+                return value == JsonToken.START_OBJECT && seekPath(parser, path, depth + 1);
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
 
-            String fuel = extractFeatureStringValue(features, "/fuel");
-            if (fuel != null) listing.setFuelType(fuel);
+    /**
+     * Cerca il JSON incorporato nella pagina, nei formati usati da Subito.it nel tempo:
+     * lo script Next.js con id __NEXT_DATA__, l'assegnazione window.__NEXT_DATA__ oppure
+     * un oggetto {"ads":{"list":[...]}} inline.
+     */
+    private static JsonSource locateJsonData(String html) {
+        int scriptTag = html.indexOf(NEXT_DATA_SCRIPT_ID);
+        if (scriptTag >= 0) {
+            int start = html.indexOf('>', scriptTag);
+            int end = start >= 0 ? html.indexOf(SCRIPT_END, start) : -1;
+            if (end > start) {
+                return new JsonSource(html.substring(start + 1, end), NEXT_DATA_ADS_PATH);
+            }
+        }
 
-            String gearbox = extractFeatureStringValue(features, "/gearbox");
-            if (gearbox != null) listing.setTransmission(gearbox);
+        int assignment = html.indexOf(NEXT_DATA_ASSIGNMENT);
+        if (assignment >= 0) {
+            JsonSource source = sliceObject(html, html.indexOf('{', assignment), NEXT_DATA_ADS_PATH);
+            if (source != null) return source;
+        }
 
-            String power = extractFeatureStringValue(features, "/power");
-            if (power != null) listing.setPower(power);
+        int inlineAds = html.indexOf(INLINE_ADS_PREFIX);
+        if (inlineAds >= 0) {
+            return sliceObject(html, inlineAds, INLINE_ADS_PATH);
         }
 
-        return listing;
+        return null;
     }
 
-    private Integer extractFeatureIntValue(JsonNode features, String key) {
-        if (features.has(key)) {
-            JsonNode feature = features.get(key);
-            if (feature.has("values") && feature.get("values").isArray() && feature.get("values").size() > 0) {
-                JsonNode firstValue = feature.get("values").get(0);
-                if (firstValue.has("key")) {
-                    try {
-                        return Integer.parseInt(firstValue.get("key").asText());
-                    } catch (NumberFormatException e) {
-                        return null;
-                    }
-                }
-            }
-        }
-        return null;
+    private static JsonSource sliceObject(String html, int start, String[] adsPath) {
+        if (start < 0) return null;
+        int end = html.indexOf(SCRIPT_END, start);
+        // Il parser si ferma alla chiusura dell'oggetto: il testo successivo non viene mai letto
+        return new JsonSource(html.substring(start, end > start ? end : html.length()), adsPath);
     }
 
-    private String extractFeatureStringValue(JsonNode features, String key) {
-        if (features.has(key)) {
-            JsonNode feature = features.get(key);
-            if (feature.has("values") && feature.get("values").isArray() && feature.get("values").size() > 0) {
-                JsonNode firstValue = feature.get("values").get(0);
-                if (firstValue.has("value")) {
-                    return firstValue.get("value").asText();
-                }
-            }
+    private static final class JsonSource {
+        private final String json;
+        private final String[] adsPath;
+
+        JsonSource(String json, String[] adsPath) {
+            this.json = json;
+            this.adsPath = adsPath;
         }
-        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package it.github.usedcars.scraper;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Risolve la zona indicata dall'utente (regione, provincia o sigla) nello slug di regione
+ * usato da Subito.it nel path di ricerca, es. "Bergamo" -> "lombardia".
+ */
+final class SubitoRegions {
+
+    private static final Map<String, String> REGION_BY_NAME = new HashMap<>();
+
+    static {
+        region("abruzzo", "abruzzo", "l'aquila", "aq", "chieti", "ch", "pescara", "pe", "teramo", "te");
+        region("basilicata", "basilicata", "matera", "mt", "potenza", "pz");
+        region("calabria", "calabria", "catanzaro", "cz", "cosenza", "cs", "crotone", "kr",
+                "reggio calabria", "rc", "vibo valentia", "vv");
+        region("campania", "campania", "avellino", "av", "benevento", "bn", "caserta", "ce",
+                "napoli", "na", "salerno", "sa");
+        region("emilia-romagna", "emilia romagna", "emilia-romagna", "bologna", "bo", "ferrara", "fe",
+                "forli-cesena", "forli", "cesena", "fc", "modena", "mo", "parma", "pr", "piacenza", "pc",
+                "ravenna", "ra", "reggio emilia", "re", "rimini", "rn");
+        region("friuli-venezia-giulia", "friuli venezia giulia", "friuli-venezia giulia", "friuli",
+                "gorizia", "go", "pordenone", "pn", "trieste", "ts", "udine", "ud");
+        region("lazio", "lazio", "frosinone", "fr", "latina", "lt", "rieti", "ri", "roma", "rm", "viterbo", "vt");
+        region("liguria", "liguria", "genova", "ge", "imperia", "im", "la spezia", "sp", "savona", "sv");
+        region("lombardia", "lombardia", "bergamo", "bg", "brescia", "bs", "como", "co", "cremona", "cr",
+                "lecco", "lc", "lodi", "lo", "mantova", "mn", "milano", "mi", "monza e brianza", "monza", "mb",
+                "pavia", "pv", "sondrio", "so", "varese", "va");
+        region("marche", "marche", "ancona", "an", "ascoli piceno", "ap", "fermo", "fm",
+                "macerata", "mc", "pesaro e urbino", "pesaro", "urbino", "pu");
+        region("molise", "molise", "campobasso", "cb", "isernia", "is");
+        region("piemonte", "piemonte", "alessandria", "al", "asti", "at", "biella", "bi", "cuneo", "cn",
+                "novara", "no", "torino", "to", "verbano-cusio-ossola", "verbania", "vb", "vercelli", "vc");
+        region("puglia", "puglia", "bari", "ba", "barletta-andria-trani", "barletta", "andria", "trani", "bt",
+                "brindisi", "br", "foggia", "fg", "lecce", "le", "taranto", "ta");
+        region("sardegna", "sardegna", "cagliari", "ca", "nuoro", "nu", "oristano", "or", "sassari", "ss",
+                "sud sardegna", "su");
+        region("sicilia", "sicilia", "agrigento", "ag", "caltanissetta", "cl", "catania", "ct", "enna", "en",
+                "messina", "me", "palermo", "pa", "ragusa", "rg", "siracusa", "sr", "trapani", "tp");
+        region("toscana", "toscana", "arezzo", "ar", "firenze", "fi", "grosseto", "gr", "livorno", "li",
+                "lucca", "lu", "massa-carrara", "massa carrara", "massa", "carrara", "ms", "pisa", "pi",
+                "pistoia", "pt", "prato", "po", "siena", "si");
+        region("trentino-alto-adige", "trentino alto adige", "trentino-alto adige", "trentino", "alto adige",
+                "bolzano", "bz", "trento", "tn");
+        region("umbria", "umbria", "perugia", "pg", "terni", "tr");
+        region("valle-d-aosta", "valle d'aosta", "valle d aosta", "val d'aosta", "aosta", "ao");
+        region("veneto", "veneto", "belluno", "bl", "padova", "pd", "rovigo", "ro", "treviso", "tv",
+                "venezia", "ve", "verona", "vr", "vicenza", "vi");
+    }
+
+    private SubitoRegions() {}
+
+    private static void region(String slug, String... names) {
+        for (String name : names) {
+            REGION_BY_NAME.put(name, slug);
+        }
+    }
+
+    /**
+     * Restituisce lo slug della regione, oppure null se la zona non e' riconosciuta
+     * (in quel caso la ricerca resta su tutta Italia).
+     */
+    static String slugFor(String location) {
+        if (location == null || location.isBlank()) return null;
+
+        // "Milano, Lombardia" -> prova ogni parte; accenti rimossi ("Forlì" -> "forli")
+        for (String part : location.split("[,/()]")) {
+            String key = Normalizer.normalize(part, Normalizer.Form.NFD)
+                    .replaceAll("\\p{M}", "")
+                    .toLowerCase()
+                    .replace("provincia di ", "")
+                    .trim();
+            String slug = REGION_BY_NAME.get(key);
+            if (slug != null) return slug;
+        }
+        return null;
+    }
+}
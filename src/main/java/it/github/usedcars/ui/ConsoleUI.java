@@ -32,6 +32,15 @@ public class ConsoleUI {
         System.out.println(ANSI_CYAN + "[...] " + message + ANSI_RESET);
     }
 
+    /**
+     * Stampa un blocco gia' formattato in un'unica scrittura, cosi' i blocchi che arrivano
+     * da thread diversi non si mescolano.
+     */
+    public void printBlock(String block) {
+        System.out.print(block);
+        System.out.flush();
+    }
+
     public void printWarning(String message) {
         System.out.println(ANSI_YELLOW + "[!] " + message + ANSI_RESET);
     }
@@ -52,68 +52,7 @@ public class ResultsPresenter {
 
         for (int i = 0; i < rankedResults.size(); i++) {
             CarListing listing = rankedResults.get(i);
-            ListingAnalysis analysis = findAnalysis(analysisResult, listing);
-
-            sb.append("\n");
-            sb.append(ANSI_BOLD).append(ANSI_CYAN);
-            sb.append("┌─ #").append(i + 1);
-            sb.append(" ────────────────────────────────────────\n");
-            sb.append(ANSI_RESET);
-
-            // Info principali
-            sb.append(ANSI_BOLD).append("  ").append(listing.getTitle()).append(ANSI_RESET).append("\n");
-            sb.append("  Prezzo: ").append(ANSI_GREEN).append(formatPrice(listing.getPrice())).append(ANSI_RESET);
-            sb.append(" | Anno: ").append(listing.getYear());
-            sb.append(" | Km: ").append(formatKm(listing.getKilometers())).append("\n");
-
-            sb.append("  Alimentazione: ").append(valueOrNd(listing.getFuelType()));
-            sb.append(" | Cambio: ").append(valueOrNd(listing.getTransmission()));
-            if (listing.getPower() != null && !listing.getPower().isBlank()) {
-                sb.append(" | Potenza: ").append(listing.getPower());
-            }
-            sb.append("\n");
-
-            sb.append("  Zona: ").append(valueOrNd(listing.getLocation()));
-            sb.append(" | Fonte: ").append(listing.getSource()).append("\n");
-            sb.append("  Link: ").append(listing.getUrl()).append("\n");
-            sb.append("  Score: ").append(String.format("%.1f", listing.getScore())).append("/100\n");
-
-            // Analisi qualitativa
-            if (analysis != null) {
-                sb.append("\n");
-                if (!analysis.getJudgement().isEmpty()) {
-                    sb.append("  ").append(ANSI_BOLD).append("Giudizio: ").append(ANSI_RESET)
-                            .append(analysis.getJudgement()).append("\n");
-                }
-                sb.append("  ").append(ANSI_BOLD).append("Voto match: ").append(ANSI_RESET);
-                sb.append(formatMatchScore(analysis.getMatchScore())).append("/10\n");
-
-                if (!analysis.getPros().isEmpty()) {
-                    sb.append("  ").append(ANSI_GREEN).append("PRO:").append(ANSI_RESET);
-                    for (String pro : analysis.getPros()) {
-                        sb.append(" + ").append(pro);
-                    }
-                    sb.append("\n");
-                }
-
-                if (!analysis.getCons().isEmpty()) {
-                    sb.append("  ").append(ANSI_YELLOW).append("CONTRO:").append(ANSI_RESET);
-                    for (String con : analysis.getCons()) {
-                        sb.append(" - ").append(con);
-                    }
-                    sb.append("\n");
-                }
-
-                if (!analysis.getRedFlags().isEmpty()) {
-                    sb.append("  ").append(ANSI_RED).append("RED FLAG:").append(ANSI_RESET);
-                    for (String flag : analysis.getRedFlags()) {
-                        sb.append(" ⚠ ").append(flag);
-                    }
-                    sb.append("\n");
-                }
-            }
-
-            sb.append(ANSI_CYAN).append("└──────────────────────────────────────────\n").append(ANSI_RESET);
+            sb.append(formatListing(i + 1, listing, findAnalysis(analysisResult, listing)));
         }
 
         // Riassunto generale
@@ -136,6 +75,77 @@ public class ResultsPresenter {
         return sb.toString();
     }
 
+    /**
+     * Formatta la scheda di un annuncio in classifica, con l'analisi se disponibile.
+     * Usata anche per mostrare le analisi man mano che arrivano in streaming.
+     *
+     * @param position posizione in classifica, da 1
+     */
+    public String formatListing(int position, CarListing listing, ListingAnalysis analysis) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n");
+        sb.append(ANSI_BOLD).append(ANSI_CYAN);
+        sb.append("┌─ #").append(position);
+        sb.append(" ────────────────────────────────────────\n");
+        sb.append(ANSI_RESET);
+
+        // Info principali
+        sb.append(ANSI_BOLD).append("  ").append(listing.getTitle()).append(ANSI_RESET).append("\n");
+        sb.append("  Prezzo: ").append(ANSI_GREEN).append(formatPrice(listing.getPrice())).append(ANSI_RESET);
+        sb.append(" | Anno: ").append(listing.getYear());
+        sb.append(" | Km: ").append(formatKm(listing.getKilometers())).append("\n");
+
+        sb.append("  Alimentazione: ").append(valueOrNd(listing.getFuelType()));
+        sb.append(" | Cambio: ").append(valueOrNd(listing.getTransmission()));
+        if (listing.getPower() != null && !listing.getPower().isBlank()) {
+            sb.append(" | Potenza: ").append(listing.getPower());
+        }
+        sb.append("\n");
+
+        sb.append("  Zona: ").append(valueOrNd(listing.getLocation()));
+        sb.append(" | Fonte: ").append(listing.getSource()).append("\n");
+        sb.append("  Link: ").append(listing.getUrl()).append("\n");
+        sb.append("  Score: ").append(String.format("%.1f", listing.getScore())).append("/100\n");
+
+        // Analisi qualitativa
+        if (analysis != null) {
+            sb.append("\n");
+            if (!analysis.getJudgement().isEmpty()) {
+                sb.append("  ").append(ANSI_BOLD).append("Giudizio: ").append(ANSI_RESET)
+                        .append(analysis.getJudgement()).append("\n");
+            }
+            sb.append("  ").append(ANSI_BOLD).append("Voto match: ").append(ANSI_RESET);
+            sb.append(formatMatchScore(analysis.getMatchScore())).append("/10\n");
+
+            if (!analysis.getPros().isEmpty()) {
+                sb.append("  ").append(ANSI_GREEN).append("PRO:").append(ANSI_RESET);
+                for (String pro : analysis.getPros()) {
+                    sb.append(" + ").append(pro);
+                }
+                sb.append("\n");
+            }
+
+            if (!analysis.getCons().isEmpty()) {
+                sb.append("  ").append(ANSI_YELLOW).append("CONTRO:").append(ANSI_RESET);
+                for (String con : analysis.getCons()) {
+                    sb.append(" - ").append(con);
+                }
+                sb.append("\n");
+            }
+
+            if (!analysis.getRedFlags().isEmpty()) {
+                sb.append("  ").append(ANSI_RED).append("RED FLAG:").append(ANSI_RESET);
+                for (String flag : analysis.getRedFlags()) {
+                    sb.append(" ⚠ ").append(flag);
+                }
+                sb.append("\n");
+            }
+        }
+
+        sb.append(ANSI_CYAN).append("└──────────────────────────────────────────\n").append(ANSI_RESET);
+        return sb.toString();
+    }
+
     private ListingAnalysis findAnalysis(AnalysisResult result, CarListing listing) {
         if (result == null || result.getAnalyses() == null) return null;
         return result.getAnalyses().stream()
@@ -0,0 +1,130 @@
+package it.github.usedcars.analyzer;
+
+import it.github.usedcars.model.CarListing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplicazione di grandi volumi: la chiave esatta su stringa usata in origine da
+ * {@code CarAnalyzer.deduplicate} (riportata qui come riferimento), la stessa chiave con
+ * {@link ExactDuplicateSet} e lo stadio completo chiave esatta + MinHash/LSH di {@link DuplicateFilter}.
+ * Con 25k e 100k annunci il tempo per annuncio mostra se la crescita resta lineare.
+ * Circa un annuncio su otto e' una ripubblicazione con titolo o prezzo ritoccati.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NearDuplicateDetectorBenchmark {
+
+    private static final String[] MODELS = {
+            "Volkswagen Golf", "Fiat Panda", "Fiat 500", "Ford Fiesta", "Renault Clio", "Toyota Yaris",
+            "Peugeot 208", "Opel Corsa", "Audi A3", "BMW Serie 1", "Jeep Renegade", "Dacia Sandero",
+            "Nissan Qashqai", "Kia Sportage", "Hyundai Tucson", "Lancia Ypsilon", "Citroen C3", "Skoda Octavia"};
+    private static final String[] VERSIONS = {
+            "1.0", "1.2", "1.4 TSI", "1.5 dCi", "1.6 TDI", "2.0 TDI", "1.0 Hybrid", "1.2 GPL", "1.3 Multijet"};
+    private static final String[] TRIMS = {
+            "Comfortline", "Lounge", "Titanium", "Business", "Sport", "Style", "Active", "Executive", "Plus"};
+    private static final String[] EXTRAS = {
+            "", " km certificati", " unico proprietario", " tagliandata", " navigatore", " neopatentati", " full optional"};
+    private static final String[] ZONES = {"Milano", "Roma", "Torino", "Napoli", "Bologna", "Firenze", "Bari", "Verona"};
+
+    @Param({"25000", "100000"})
+    public int listings;
+
+    private final CarAnalyzer analyzer = new CarAnalyzer();
+    private List<CarListing> data;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        data = new ArrayList<>(listings);
+        while (data.size() < listings) {
+            if (!data.isEmpty() && random.nextInt(8) == 0) {
+                data.add(repost(data.get(random.nextInt(data.size())), random));
+            } else {
+                data.add(randomListing(random));
+            }
+        }
+    }
+
+    @Benchmark
+    public int exactStringKey() {
+        Set<String> seen = new HashSet<>();
+        int unique = 0;
+        for (CarListing listing : data) {
+            if (seen.add(stringKey(listing))) unique++;
+        }
+        return unique;
+    }
+
+    @Benchmark
+    public int exactHashedKey() {
+        ExactDuplicateSet seen = new ExactDuplicateSet();
+        int unique = 0;
+        for (CarListing listing : data) {
+            if (seen.add(listing)) unique++;
+        }
+        return unique;
+    }
+
+    @Benchmark
+    public int exactAndNearDuplicates() {
+        DuplicateFilter filter = new DuplicateFilter(analyzer);
+        int unique = 0;
+        for (CarListing listing : data) {
+            if (filter.addIfUnique(listing)) unique++;
+        }
+        return unique;
+    }
+
+    // ---- Dati sintetici ----
+
+    private static CarListing randomListing(Random random) {
+        CarListing listing = new CarListing();
+        listing.setTitle(MODELS[random.nextInt(MODELS.length)] + " " + VERSIONS[random.nextInt(VERSIONS.length)]
+                + " " + TRIMS[random.nextInt(TRIMS.length)] + EXTRAS[random.nextInt(EXTRAS.length)]);
+        listing.setPrice(2000 + random.nextInt(38000));
+        listing.setYear(2008 + random.nextInt(17));
+        listing.setKilometers(5000 + random.nextInt(200000));
+        listing.setLocation(ZONES[random.nextInt(ZONES.length)]);
+        return listing;
+    }
+
+    /** Stesso annuncio ripubblicato: titolo con un dettaglio diverso, prezzo ritoccato di poco. */
+    private static CarListing repost(CarListing original, Random random) {
+        CarListing listing = new CarListing();
+        String title = original.getTitle();
+        listing.setTitle(random.nextBoolean() ? title + EXTRAS[1 + random.nextInt(EXTRAS.length - 1)] : title.toUpperCase());
+        listing.setPrice(original.getPrice() + random.nextInt(201) - 100);
+        listing.setYear(original.getYear());
+        listing.setKilometers(original.getKilometers() + random.nextInt(1000));
+        listing.setLocation(original.getLocation());
+        return listing;
+    }
+
+    /** Chiave esatta originale: titolo normalizzato, prezzo al migliaio, anno e zona. */
+    private static String stringKey(CarListing listing) {
+        String title = listing.getTitle() == null ? "" : listing.getTitle().toLowerCase().replaceAll("[^a-z0-9]", "");
+        String zone = listing.getLocation() == null ? "" : listing.getLocation().toLowerCase().trim();
+        return title + "|" + (listing.getPrice() / 1000) * 1000 + "|" + listing.getYear() + "|" + zone;
+    }
+}
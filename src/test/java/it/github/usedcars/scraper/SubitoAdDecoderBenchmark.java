@@ -0,0 +1,164 @@
+package it.github.usedcars.scraper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.github.usedcars.model.CarListing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodifica dell'array annunci di una pagina Subito.it: {@link SubitoAdDecoder} (una passata sul
+ * parser) contro la lettura di un albero {@link JsonNode} per annuncio, il metodo usato in precedenza
+ * e riportato qui come riferimento. La pagina e' sintetica ma ha la forma del JSON reale, con i campi
+ * non usati (immagini, inserzionista) che entrambi i metodi devono saltare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubitoAdDecoderBenchmark {
+
+    private static final String SOURCE_NAME = "Subito.it";
+
+    @Param({"30", "300"})
+    public int ads;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SubitoAdDecoder decoder = new SubitoAdDecoder(SOURCE_NAME);
+    private String json;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ads; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"item\":{\"kind\":\"AdItem\",\"urn\":\"id:ad:").append(100000 + i).append("\",")
+                    .append("\"subject\":\"Volkswagen Golf 1.6 TDI Comfortline ").append(i).append("\",")
+                    .append("\"body\":\"Auto in ottime condizioni, tagliandi certificati, unico proprietario.\",")
+                    .append("\"urls\":{\"default\":\"https://www.subito.it/auto/golf-").append(i).append(".htm\",")
+                    .append("\"mobile\":\"https://m.subito.it/auto/golf-").append(i).append(".htm\"},")
+                    .append("\"images\":[{\"uri\":\"https://img.subito.it/a.jpg\",\"scale\":[{\"size\":\"big\"},{\"size\":\"small\"}]},")
+                    .append("{\"uri\":\"https://img.subito.it/b.jpg\",\"scale\":[{\"size\":\"big\"}]}],")
+                    .append("\"advertiser\":{\"userId\":\"").append(i * 7).append("\",\"name\":\"Privato\",\"company\":false},")
+                    .append("\"geo\":{\"region\":{\"value\":\"Lombardia\"},\"city\":{\"value\":\"Milano\"},")
+                    .append("\"town\":{\"value\":\"Sesto San Giovanni\"}},")
+                    .append("\"features\":{")
+                    .append("\"/price\":{\"values\":[{\"key\":\"").append(8000 + i * 10).append("\",\"value\":\"")
+                    .append(8000 + i * 10).append(" €\"}]},")
+                    .append("\"/mileage_scalar\":{\"values\":[{\"key\":\"").append(90000 + i).append("\",\"value\":\"")
+                    .append(90000 + i).append(" Km\"}]},")
+                    .append("\"/year\":{\"values\":[{\"key\":\"").append(2015 + i % 8).append("\",\"value\":\"")
+                    .append(2015 + i % 8).append("\"}]},")
+                    .append("\"/fuel\":{\"values\":[{\"key\":\"2\",\"value\":\"Diesel\"}]},")
+                    .append("\"/gearbox\":{\"values\":[{\"key\":\"1\",\"value\":\"Manuale\"}]},")
+                    .append("\"/power\":{\"values\":[{\"key\":\"85\",\"value\":\"85 kW (116 CV)\"}]},")
+                    .append("\"/doors\":{\"values\":[{\"key\":\"5\",\"value\":\"5\"}]}")
+                    .append("}}}");
+        }
+        json = sb.append(']').toString();
+    }
+
+    @Benchmark
+    public List<CarListing> streamingDecoder() throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            parser.nextToken();
+            return decoder.decodeAds(parser);
+        }
+    }
+
+    @Benchmark
+    public List<CarListing> treePerAd() throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            parser.nextToken();
+            List<CarListing> listings = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                JsonNode adNode = parser.readValueAsTree();
+                JsonNode itemNode = adNode.has("item") ? adNode.get("item") : adNode;
+                if (itemNode.has("kind") && !"AdItem".equals(itemNode.get("kind").asText())) {
+                    continue;
+                }
+                listings.add(parseAdNode(itemNode));
+            }
+            return listings;
+        }
+    }
+
+    // ---- Metodo ad albero precedente ----
+
+    private static CarListing parseAdNode(JsonNode node) {
+        CarListing listing = new CarListing();
+        listing.setSource(SOURCE_NAME);
+        if (node.has("subject")) {
+            listing.setTitle(node.get("subject").asText());
+        }
+        if (node.has("urls") && node.get("urls").has("default")) {
+            listing.setUrl(node.get("urls").get("default").asText());
+        }
+        if (node.has("geo")) {
+            JsonNode geo = node.get("geo");
+            StringBuilder location = new StringBuilder();
+            if (geo.has("town") && geo.get("town").has("value")) {
+                location.append(geo.get("town").get("value").asText());
+            }
+            if (geo.has("city") && geo.get("city").has("value")) {
+                if (location.length() > 0) location.append(", ");
+                location.append(geo.get("city").get("value").asText());
+            }
+            listing.setLocation(location.toString());
+        }
+        if (node.has("features")) {
+            JsonNode features = node.get("features");
+            Integer price = featureInt(features, "/price");
+            if (price != null) listing.setPrice(price);
+            Integer mileage = featureInt(features, "/mileage_scalar");
+            if (mileage != null) listing.setKilometers(mileage);
+            Integer year = featureInt(features, "/year");
+            if (year != null) listing.setYear(year);
+            String fuel = featureText(features, "/fuel");
+            if (fuel != null) listing.setFuelType(fuel);
+            String gearbox = featureText(features, "/gearbox");
+            if (gearbox != null) listing.setTransmission(gearbox);
+            String power = featureText(features, "/power");
+            if (power != null) listing.setPower(power);
+        }
+        return listing;
+    }
+
+    private static JsonNode firstValue(JsonNode features, String key) {
+        JsonNode values = features.path(key).path("values");
+        return values.isArray() && values.size() > 0 ? values.get(0) : null;
+    }
+
+    private static Integer featureInt(JsonNode features, String key) {
+        JsonNode value = firstValue(features, key);
+        if (value == null || !value.has("key")) return null;
+        try {
+            return Integer.parseInt(value.get("key").asText());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String featureText(JsonNode features, String key) {
+        JsonNode value = firstValue(features, key);
+        return value != null && value.has("value") ? value.get("value").asText() : null;
+    }
+}